@@ -0,0 +1,78 @@
+package gq.ledo.couchbaseorm;
+
+import com.google.common.base.Joiner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes a view aggregating a numeric property, optionally grouped by other properties.
+ * Like {@link IndexDefinition}, its name and version are derived from the definition itself.
+ */
+public class AggregateDefinition {
+
+    private static final String PREFIX = "aggregate.";
+
+    /**
+     * Key emitted for every document without grouping, Couchbase Lite ignores rows emitted with
+     * a null key.
+     */
+    static final Integer UNGROUPED_KEY = 0;
+
+    private final String name;
+    private final String field;
+    private final String[] groupBy;
+    private final String version;
+
+    public AggregateDefinition(String name, String field, String[] groupBy, String version) {
+        this.name = name;
+        this.field = field;
+        this.groupBy = groupBy;
+        this.version = version;
+    }
+
+    public static AggregateDefinition of(String field, String... groupBy) {
+        String[] definition = new String[groupBy.length + 1];
+        definition[0] = PREFIX + field;
+        System.arraycopy(groupBy, 0, definition, 1, groupBy.length);
+        String name = PREFIX + field + (groupBy.length > 0 ? ".by." + Joiner.on('.').join(groupBy) : "");
+
+        return new AggregateDefinition(name, field, groupBy.clone(), IndexDefinition.version(definition));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public String[] getGroupBy() {
+        return groupBy;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Builds the group key of the document: {@link #UNGROUPED_KEY} without grouping, the raw
+     * value for a single property, a list of values (in groupBy order) otherwise.
+     */
+    Object keyFor(Map<String, Object> document) {
+        if (groupBy.length == 0) {
+            return UNGROUPED_KEY;
+        }
+        if (groupBy.length == 1) {
+            return document.get(groupBy[0]);
+        }
+        List<Object> key = new ArrayList<>(groupBy.length);
+        for (String property : groupBy) {
+            key.add(document.get(property));
+        }
+
+        return key;
+    }
+}
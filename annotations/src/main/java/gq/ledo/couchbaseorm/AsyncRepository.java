@@ -0,0 +1,354 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.Query;
+import com.couchbase.lite.QueryEnumerator;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynchronous counterpart of a {@link BaseRepository}, keeping its disk I/O off the calling
+ * thread.
+ * <p>
+ * Queries returning several entities are created on the given executor, run through
+ * {@link Query#runAsync} and their rows are unserialized on the executor; every other operation
+ * runs entirely on the executor.
+ * Results are delivered as {@link ListenableFuture}s, so callbacks can be attached with
+ * {@link com.google.common.util.concurrent.Futures#addCallback}.
+ */
+public class AsyncRepository<T extends CouchDocument> {
+
+    protected final BaseRepository<T> repository;
+    protected final Executor executor;
+
+    public AsyncRepository(BaseRepository<T> repository, Executor executor) {
+        this.repository = repository;
+        this.executor = executor;
+    }
+
+    public ListenableFuture<T> findOneById(final String id) {
+        return submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return repository.findOneById(id);
+            }
+        });
+    }
+
+    public ListenableFuture<Map<String, T>> findAllById(final Collection<String> ids) {
+        return submit(new Callable<Map<String, T>>() {
+            @Override
+            public Map<String, T> call() throws Exception {
+                return repository.findAllById(ids);
+            }
+        });
+    }
+
+    public ListenableFuture<Collection<T>> findAll() {
+        return runAsync(new Callable<Query>() {
+            @Override
+            public Query call() {
+                return repository.createAllQuery();
+            }
+        });
+    }
+
+    public ListenableFuture<Page<T>> findAll(final PageRequest pageRequest) {
+        return submit(new Callable<Page<T>>() {
+            @Override
+            public Page<T> call() throws Exception {
+                return repository.findAll(pageRequest);
+            }
+        });
+    }
+
+    public ListenableFuture<Collection<T>> findBy(String field, Object value) {
+        HashMap<String, Object> filter = new HashMap<>();
+        filter.put(field, value);
+
+        return findBy(filter);
+    }
+
+    public ListenableFuture<Collection<T>> findBy(final Map<String, Object> keyValueMap) {
+        return runAsync(new Callable<Query>() {
+            @Override
+            public Query call() {
+                return repository.createQuery(keyValueMap);
+            }
+        });
+    }
+
+    public ListenableFuture<Page<T>> findBy(final Map<String, Object> keyValueMap, final PageRequest pageRequest) {
+        return submit(new Callable<Page<T>>() {
+            @Override
+            public Page<T> call() throws Exception {
+                return repository.findBy(keyValueMap, pageRequest);
+            }
+        });
+    }
+
+    public ListenableFuture<T> findOneBy(String field, Object value) {
+        HashMap<String, Object> filter = new HashMap<>();
+        filter.put(field, value);
+
+        return findOneBy(filter);
+    }
+
+    public ListenableFuture<T> findOneBy(final Map<String, Object> keyValueMap) {
+        return submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return repository.findOneBy(keyValueMap);
+            }
+        });
+    }
+
+    public ListenableFuture<Integer> countAll() {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return repository.countAll();
+            }
+        });
+    }
+
+    public ListenableFuture<Integer> countBy(String field, Object value) {
+        HashMap<String, Object> filter = new HashMap<>();
+        filter.put(field, value);
+
+        return countBy(filter);
+    }
+
+    public ListenableFuture<Integer> countBy(final Map<String, Object> keyValueMap) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return repository.countBy(keyValueMap);
+            }
+        });
+    }
+
+    public ListenableFuture<Collection<T>> findAllProjections() {
+        return submit(new Callable<Collection<T>>() {
+            @Override
+            public Collection<T> call() throws Exception {
+                return repository.findAllProjections();
+            }
+        });
+    }
+
+    public ListenableFuture<Page<T>> findAllProjections(final PageRequest pageRequest) {
+        return submit(new Callable<Page<T>>() {
+            @Override
+            public Page<T> call() throws Exception {
+                return repository.findAllProjections(pageRequest);
+            }
+        });
+    }
+
+    public ListenableFuture<Collection<T>> findProjectionsBy(String field, Object value) {
+        HashMap<String, Object> filter = new HashMap<>();
+        filter.put(field, value);
+
+        return findProjectionsBy(filter);
+    }
+
+    public ListenableFuture<Collection<T>> findProjectionsBy(final Map<String, Object> keyValueMap) {
+        return submit(new Callable<Collection<T>>() {
+            @Override
+            public Collection<T> call() throws Exception {
+                return repository.findProjectionsBy(keyValueMap);
+            }
+        });
+    }
+
+    public ListenableFuture<T> save(final T object) {
+        return submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return repository.save(object);
+            }
+        });
+    }
+
+    public ListenableFuture<T> upsert(final T object) {
+        return submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return repository.upsert(object);
+            }
+        });
+    }
+
+    public ListenableFuture<BatchResult<T>> saveAll(final Collection<T> objects) {
+        return submit(new Callable<BatchResult<T>>() {
+            @Override
+            public BatchResult<T> call() throws Exception {
+                return repository.saveAll(objects);
+            }
+        });
+    }
+
+    public ListenableFuture<T> update(final String id, final EntityUpdater<T> updater) {
+        return submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return repository.update(id, updater);
+            }
+        });
+    }
+
+    public ListenableFuture<Boolean> delete(final T object) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return repository.delete(object);
+            }
+        });
+    }
+
+    public ListenableFuture<BatchResult<T>> deleteAll(final Collection<T> objects) {
+        return submit(new Callable<BatchResult<T>>() {
+            @Override
+            public BatchResult<T> call() throws Exception {
+                return repository.deleteAll(objects);
+            }
+        });
+    }
+
+    protected ListenableFuture<Collection<T>> findByIndex(final IndexDefinition index, final Object key) {
+        return runAsync(new Callable<Query>() {
+            @Override
+            public Query call() {
+                return repository.createIndexQuery(index, key);
+            }
+        });
+    }
+
+    protected ListenableFuture<Collection<T>> findByIndexRange(final IndexDefinition index, final Object startKey, final boolean inclusiveStart, final Object endKey) {
+        return runAsync(new Callable<Query>() {
+            @Override
+            public Query call() {
+                return repository.createRangeQuery(index, startKey, inclusiveStart, endKey);
+            }
+        });
+    }
+
+    protected ListenableFuture<T> findOneByIndex(final IndexDefinition index, final Object key) {
+        return submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return repository.findOneByIndex(index, key);
+            }
+        });
+    }
+
+    protected ListenableFuture<Page<T>> findByIndex(final IndexDefinition index, final Object key, final PageRequest pageRequest) {
+        return submit(new Callable<Page<T>>() {
+            @Override
+            public Page<T> call() throws Exception {
+                return repository.findByIndex(index, key, pageRequest);
+            }
+        });
+    }
+
+    protected ListenableFuture<Collection<T>> findProjectionsByIndex(final IndexDefinition index, final Object key) {
+        return submit(new Callable<Collection<T>>() {
+            @Override
+            public Collection<T> call() throws Exception {
+                return repository.findProjectionsByIndex(index, key);
+            }
+        });
+    }
+
+    protected ListenableFuture<Integer> countByIndex(final IndexDefinition index, final Object key) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return repository.countByIndex(index, key);
+            }
+        });
+    }
+
+    protected ListenableFuture<Map<Object, Integer>> countGroupedByIndex(final IndexDefinition index) {
+        return submit(new Callable<Map<Object, Integer>>() {
+            @Override
+            public Map<Object, Integer> call() throws Exception {
+                return repository.countGroupedByIndex(index);
+            }
+        });
+    }
+
+    protected ListenableFuture<Statistics> aggregate(final AggregateDefinition aggregate) {
+        return submit(new Callable<Statistics>() {
+            @Override
+            public Statistics call() throws Exception {
+                return repository.aggregate(aggregate);
+            }
+        });
+    }
+
+    protected ListenableFuture<Map<Object, Statistics>> aggregateGrouped(final AggregateDefinition aggregate) {
+        return submit(new Callable<Map<Object, Statistics>>() {
+            @Override
+            public Map<Object, Statistics> call() throws Exception {
+                return repository.aggregateGrouped(aggregate);
+            }
+        });
+    }
+
+    protected <R> ListenableFuture<R> submit(Callable<R> task) {
+        ListenableFutureTask<R> future = ListenableFutureTask.create(task);
+        executor.execute(future);
+
+        return future;
+    }
+
+    /**
+     * Creates the query on the executor, as it may open or create its view, then runs it on the
+     * database's own background thread and unserializes its rows on the executor.
+     */
+    protected ListenableFuture<Collection<T>> runAsync(final Callable<Query> queryFactory) {
+        final SettableFuture<Collection<T>> future = SettableFuture.create();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runAsync(queryFactory.call(), future);
+                } catch (Exception e) {
+                    future.setException(e);
+                }
+            }
+        });
+
+        return future;
+    }
+
+    private void runAsync(Query query, final SettableFuture<Collection<T>> future) {
+        query.runAsync(new Query.QueryCompleteListener() {
+            @Override
+            public void completed(final QueryEnumerator rows, Throwable error) {
+                if (error != null) {
+                    future.setException(error);
+                    return;
+                }
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            future.set(repository.toList(repository.cursor(rows)));
+                        } catch (RuntimeException e) {
+                            future.setException(e);
+                        }
+                    }
+                });
+            }
+        });
+    }
+}
@@ -8,18 +8,24 @@ import com.couchbase.lite.Mapper;
 import com.couchbase.lite.Query;
 import com.couchbase.lite.QueryEnumerator;
 import com.couchbase.lite.QueryRow;
+import com.couchbase.lite.Reducer;
+import com.couchbase.lite.SavedRevision;
+import com.couchbase.lite.Status;
+import com.couchbase.lite.TransactionalTask;
+import com.couchbase.lite.UnsavedRevision;
 import com.couchbase.lite.View;
 import com.google.common.base.Function;
-import com.google.common.base.Predicate;
-import com.google.common.collect.Collections2;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.Set;
 
 
 /**
@@ -29,41 +35,109 @@ import java.util.Random;
 public abstract class BaseRepository<T extends CouchDocument> {
 
     public static final String TYPE_FIELD = "type";
+    protected static final String ID_FIELD = "_id";
     protected static final String REVISION_FIELD = "_rev";
+    private static final String TYPE_VIEW_VERSION = "1";
+    private static final int MAX_CONFLICT_RETRIES = 5;
+    private static final String[] NO_PROJECTION = new String[0];
+    private static final IndexDefinition[] NO_INDEXES = new IndexDefinition[0];
+    private static final AggregateDefinition[] NO_AGGREGATES = new AggregateDefinition[0];
+    private static final Reducer COUNT_REDUCER = new CountReducer();
+    private static final Reducer STATISTICS_REDUCER = new StatisticsReducer();
     protected final Database database;
+    protected final ViewRegistry viewRegistry;
     private final View typeView;
+    private ConflictResolver<T> conflictResolver;
+    private volatile EntityCache<T> cache;
+    private volatile boolean prefetch;
+    private final Function<QueryRow, T> rowUnserializer = new Function<QueryRow, T>() {
+        @Override
+        public T apply(QueryRow input) {
+            return unserialize(input);
+        }
+    };
+    /**
+     * Projections handed out by this repository, weakly referenced and compared by identity.
+     */
+    private final Set<T> projections = Collections.newSetFromMap(new MapMaker().weakKeys().<T, Boolean>makeMap());
+    private final Function<QueryRow, T> projectionUnserializer = new Function<QueryRow, T>() {
+        @Override
+        public T apply(QueryRow input) {
+            T entity = unserializeRow(input);
+            // Whole entities are loaded when there is no projection, those carry a revision
+            if (entity != null && entity.getRevisionId() == null) {
+                projections.add(entity);
+            }
+            return entity;
+        }
+    };
 
     public BaseRepository(Database database) {
+        this(database, ViewRegistry.forDatabase(database));
+    }
+
+    public BaseRepository(Database database, ViewRegistry viewRegistry) {
         this.database = database;
-        typeView = createView(TYPE_FIELD, getType());
+        this.viewRegistry = viewRegistry;
+        typeView = getTypeView();
     }
 
     public T findOneById(String id) {
+        EntityCache<T> entityCache = cache;
+        if (entityCache != null) {
+            T cached = entityCache.get(id);
+            if (cached != null) {
+                return cached;
+            }
+        }
 
         Document document = database.getDocument(id);
         if (document != null) {
-            return unserialize(document);
+            return cache(unserialize(document));
         }
 
         return null;
     }
 
-    public Collection<T> findAll() {
-        Collection<T> items = new ArrayList<T>();
+    /**
+     * Loads the entities of this type with the given ids through a single query on all the
+     * documents, skipping missing ones.
+     *
+     * @return the entities keyed by id, in the order of the given ids
+     */
+    public Map<String, T> findAllById(Collection<String> ids) {
+        Map<String, T> entities = new LinkedHashMap<>(ids.size());
+        if (ids.isEmpty()) {
+            return entities;
+        }
+        Query query = database.createAllDocumentsQuery();
+        query.setKeys(new ArrayList<Object>(ids));
+        query.setPrefetch(true);
         try {
-            QueryEnumerator rows = typeView.createQuery().run();
-            if (rows != null) {
-                items = Collections2.transform(Lists.newArrayList((Iterable<QueryRow>) rows), new Function<QueryRow, T>() {
-                    @Override
-                    public T apply(QueryRow input) {
-                        return unserialize(input.getDocument());
-                    }
-                });
+            QueryEnumerator rows = query.run();
+            for (QueryRow row : rows) {
+                Map<String, Object> properties = row.getDocumentProperties();
+                if (properties == null || !getType().equals(properties.get(TYPE_FIELD))) {
+                    continue;
+                }
+                entities.put(row.getDocumentId(), cache(unserialize(properties)));
             }
         } catch (CouchbaseLiteException e) {
             //e.printStackTrace();
         }
-        return items;
+
+        return entities;
+    }
+
+    public Collection<T> findAll() {
+        return toList(iterateAll());
+    }
+
+    /**
+     * Streams every entity of this type, unserializing them one at a time as the cursor advances.
+     */
+    public RepositoryCursor<T> iterateAll() {
+        return iterate(createAllQuery());
     }
 
     public Collection<T> findBy(String field, Object value) {
@@ -74,29 +148,317 @@ public abstract class BaseRepository<T extends CouchDocument> {
     }
 
     public Collection<T> findBy(final Map<String, Object> keyValueMap) {
-        Collection<T> result = new ArrayList<>();
-        Query query = createView(keyValueMap).createQuery();
+        return toList(iterateBy(keyValueMap));
+    }
+
+    public RepositoryCursor<T> iterateBy(String field, Object value) {
+        HashMap<String, Object> filter = new HashMap<>();
+        filter.put(field, value);
+
+        return iterateBy(filter);
+    }
+
+    public RepositoryCursor<T> iterateBy(final Map<String, Object> keyValueMap) {
+        return iterate(createQuery(keyValueMap));
+    }
+
+    public Page<T> findAll(PageRequest pageRequest) {
+        return findPage(createAllQuery(), pageRequest);
+    }
+
+    public Page<T> findBy(String field, Object value, PageRequest pageRequest) {
+        HashMap<String, Object> filter = new HashMap<>();
+        filter.put(field, value);
+
+        return findBy(filter, pageRequest);
+    }
+
+    public Page<T> findBy(Map<String, Object> keyValueMap, PageRequest pageRequest) {
+        return findPage(createQuery(keyValueMap), pageRequest);
+    }
+
+    protected Page<T> findByIndex(IndexDefinition index, Object key, PageRequest pageRequest) {
+        return findPage(createIndexQuery(index, key), pageRequest);
+    }
+
+    protected Collection<T> findByIndex(IndexDefinition index, Object key) {
+        return toList(iterateByIndex(index, key));
+    }
+
+    protected RepositoryCursor<T> iterateByIndex(IndexDefinition index, Object key) {
+        return iterate(createIndexQuery(index, key));
+    }
+
+    /**
+     * Counts the entities of this type inside the index, without loading any of them.
+     */
+    public int countAll() {
+        return count(createAllQuery());
+    }
+
+    public int countBy(String field, Object value) {
+        HashMap<String, Object> filter = new HashMap<>();
+        filter.put(field, value);
+
+        return countBy(filter);
+    }
+
+    public int countBy(Map<String, Object> keyValueMap) {
+        return count(createQuery(keyValueMap));
+    }
+
+    protected int countByIndex(IndexDefinition index, Object key) {
+        return count(createIndexQuery(index, key));
+    }
+
+    /**
+     * Counts the entities for every distinct key of the index.
+     */
+    protected Map<Object, Integer> countGroupedByIndex(IndexDefinition index) {
+        Map<Object, Integer> counts = new LinkedHashMap<>();
+        Query query = getIndexView(index).createQuery();
+        query.setGroupLevel(index.getFields().length);
+        try {
+            for (QueryRow row : query.run()) {
+                counts.put(row.getKey(), ((Number) row.getValue()).intValue());
+            }
+        } catch (CouchbaseLiteException e) {
+            //e.printStackTrace();
+        }
+
+        return counts;
+    }
+
+    /**
+     * Runs the query reduced to the number of rows.
+     */
+    protected int count(Query query) {
+        query.setMapOnly(false);
+        query.setPrefetch(false);
+        try {
+            QueryEnumerator rows = query.run();
+            if (rows != null && rows.getCount() > 0) {
+                return ((Number) rows.getRow(0).getValue()).intValue();
+            }
+        } catch (CouchbaseLiteException e) {
+            //e.printStackTrace();
+        }
+
+        return 0;
+    }
+
+    /**
+     * Computes the statistics of the aggregated property over every entity of this type.
+     */
+    protected Statistics aggregate(AggregateDefinition aggregate) {
+        Query query = getAggregateView(aggregate).createQuery();
+        if (aggregate.getGroupBy().length == 0) {
+            query.setStartKey(AggregateDefinition.UNGROUPED_KEY);
+            query.setEndKey(AggregateDefinition.UNGROUPED_KEY);
+        }
+        try {
+            QueryEnumerator rows = query.run();
+            if (rows != null && rows.getCount() > 0) {
+                return Statistics.fromValue(rows.getRow(0).getValue());
+            }
+        } catch (CouchbaseLiteException e) {
+            //e.printStackTrace();
+        }
+
+        return Statistics.empty();
+    }
+
+    /**
+     * Computes the statistics of the aggregated property for every group.
+     */
+    protected Map<Object, Statistics> aggregateGrouped(AggregateDefinition aggregate) {
+        Map<Object, Statistics> groups = new LinkedHashMap<>();
+        Query query = getAggregateView(aggregate).createQuery();
+        query.setGroupLevel(aggregate.getGroupBy().length);
+        try {
+            for (QueryRow row : query.run()) {
+                groups.put(row.getKey(), Statistics.fromValue(row.getValue()));
+            }
+        } catch (CouchbaseLiteException e) {
+            //e.printStackTrace();
+        }
+
+        return groups;
+    }
+
+    /**
+     * Returns the projection of every entity of this type, built from the view rows without
+     * loading any document. Projections only hold the id and the projected properties, so
+     * {@link #save} and {@link #saveAll} refuse them.
+     *
+     * @see gq.ledo.couchbaseorm.annotations.Projection
+     */
+    public Collection<T> findAllProjections() {
+        return toList(iterateAllProjections());
+    }
+
+    public RepositoryCursor<T> iterateAllProjections() {
+        return iterateProjections(createAllQuery());
+    }
+
+    public Page<T> findAllProjections(PageRequest pageRequest) {
+        return findPage(withoutPrefetch(createAllQuery()), pageRequest, projectionUnserializer);
+    }
+
+    public Collection<T> findProjectionsBy(String field, Object value) {
+        HashMap<String, Object> filter = new HashMap<>();
+        filter.put(field, value);
+
+        return findProjectionsBy(filter);
+    }
+
+    /**
+     * Returns the projections of the entities matching every given property, relying on the
+     * index keys alone so no document is loaded. Like {@link #findAllProjections()}, they can't
+     * be saved.
+     */
+    public Collection<T> findProjectionsBy(Map<String, Object> keyValueMap) {
+        IndexDefinition index = IndexDefinition.of(keyValueMap.keySet().toArray(new String[keyValueMap.size()]));
+
+        return findProjectionsByIndex(index, index.keyFor(keyValueMap));
+    }
+
+    protected Collection<T> findProjectionsByIndex(IndexDefinition index, Object key) {
+        return toList(iterateProjections(createIndexQuery(index, key)));
+    }
+
+    protected Page<T> findProjectionsByIndex(IndexDefinition index, Object key, PageRequest pageRequest) {
+        return findPage(withoutPrefetch(createIndexQuery(index, key)), pageRequest, projectionUnserializer);
+    }
+
+    /**
+     * Returns the entities whose indexed value falls in the given range, scanning the sorted
+     * index between both keys.
+     *
+     * @param inclusiveStart whether entities with a value equal to the start key are included
+     * @param endKey         inclusive upper bound, or null for no upper bound
+     */
+    protected Collection<T> findByIndexRange(IndexDefinition index, Object startKey, boolean inclusiveStart, Object endKey) {
+        return toList(iterate(createRangeQuery(index, startKey, inclusiveStart, endKey)));
+    }
+
+    protected T findOneByIndex(IndexDefinition index, Object key) {
+        return findFirst(createIndexQuery(index, key));
+    }
+
+    /**
+     * Runs the query restricted to the requested page. Rows of the same key are sorted by
+     * document id, so the last row of the page is a valid keyset continuation.
+     */
+    protected Page<T> findPage(Query query, PageRequest pageRequest) {
+        return findPage(query, pageRequest, rowUnserializer);
+    }
+
+    private Page<T> findPage(Query query, PageRequest pageRequest, Function<QueryRow, T> unserializer) {
+        pageRequest.applyTo(query);
+        List<T> items = new ArrayList<>(pageRequest.getLimit());
+        QueryRow last = null;
         try {
             QueryEnumerator rows = query.run();
             if (rows != null) {
-                Iterable<QueryRow> filteredRows = Iterables.filter(rows, new Predicate<QueryRow>() {
-                    @Override
-                    public boolean apply(QueryRow input) {
-                        return validateRow(input.getDocument(), keyValueMap);
-                    }
-                });
-                Collection<QueryRow> items = Lists.newArrayList(filteredRows);
-                result = Collections2.transform(items, new Function<QueryRow, T>() {
-                    @Override
-                    public T apply(QueryRow input) {
-                        return unserialize(input.getDocument());
-                    }
-                });
+                for (QueryRow row : rows) {
+                    items.add(unserializer.apply(row));
+                    last = row;
+                }
             }
         } catch (CouchbaseLiteException e) {
             //e.printStackTrace();
         }
-        return result;
+        PageRequest next = null;
+        if (last != null && items.size() == pageRequest.getLimit()) {
+            next = pageRequest.after(last.getKey(), last.getDocumentId());
+        }
+
+        return new Page<>(items, next);
+    }
+
+    public RepositoryObserver<T> observeAll(ResultChangeListener<T> listener) {
+        return observe(createAllQuery(), listener);
+    }
+
+    public RepositoryObserver<T> observeBy(String field, Object value, ResultChangeListener<T> listener) {
+        HashMap<String, Object> filter = new HashMap<>();
+        filter.put(field, value);
+
+        return observeBy(filter, listener);
+    }
+
+    public RepositoryObserver<T> observeBy(Map<String, Object> keyValueMap, ResultChangeListener<T> listener) {
+        return observe(createQuery(keyValueMap), listener);
+    }
+
+    protected RepositoryObserver<T> observeByIndex(IndexDefinition index, Object key, ResultChangeListener<T> listener) {
+        return observe(createIndexQuery(index, key), listener);
+    }
+
+    /**
+     * Starts observing the query: the listener is notified with the initial result and then
+     * every time it changes, until {@link RepositoryObserver#stop()} is called.
+     */
+    protected RepositoryObserver<T> observe(Query query, ResultChangeListener<T> listener) {
+        RepositoryObserver<T> observer = new RepositoryObserver<>(this, query.toLiveQuery(), listener);
+        observer.start();
+
+        return observer;
+    }
+
+    /**
+     * Runs the query limited to a single row and unserializes only that one.
+     */
+    protected T findFirst(Query query) {
+        query.setLimit(1);
+        RepositoryCursor<T> cursor = iterate(query);
+        T item = cursor.hasNext() ? cursor.next() : null;
+        cursor.close();
+
+        return item;
+    }
+
+    /**
+     * Runs the query and wraps its rows in a cursor. A failed query yields an empty cursor.
+     */
+    protected RepositoryCursor<T> iterate(Query query) {
+        QueryEnumerator rows = null;
+        try {
+            rows = query.run();
+        } catch (CouchbaseLiteException e) {
+            //e.printStackTrace();
+        }
+
+        return cursor(rows);
+    }
+
+    /**
+     * Runs the query and wraps its rows in a cursor of projections.
+     */
+    protected RepositoryCursor<T> iterateProjections(Query query) {
+        QueryEnumerator rows = null;
+        try {
+            rows = withoutPrefetch(query).run();
+        } catch (CouchbaseLiteException e) {
+            //e.printStackTrace();
+        }
+
+        return new RepositoryCursor<>(rows, projectionUnserializer);
+    }
+
+    protected RepositoryCursor<T> cursor(QueryEnumerator rows) {
+        return new RepositoryCursor<>(rows, rowUnserializer);
+    }
+
+    protected List<T> toList(RepositoryCursor<T> cursor) {
+        List<T> items = new ArrayList<>(cursor.getCount());
+        while (cursor.hasNext()) {
+            items.add(cursor.next());
+        }
+        cursor.close();
+
+        return items;
     }
 
     public T findOneBy(String field, Object value) {
@@ -107,78 +469,548 @@ public abstract class BaseRepository<T extends CouchDocument> {
     }
 
     public T findOneBy(Map<String, Object> keyValueMap) {
-        Collection<T> ts = findBy(keyValueMap);
-        if (ts.size() > 0) {
-            return (T) ts.toArray()[0];
+        return findFirst(createQuery(keyValueMap));
+    }
+
+    /**
+     * Saves the entity, updating its id and revision in place from the saved revision instead of
+     * reading the document back.
+     * <p>
+     * The write is made on top of the revision the entity was loaded with. If the document was
+     * modified since, the {@link ConflictResolver} (if any) is asked to merge both versions and
+     * the save is retried; otherwise a {@link ConflictException} is thrown.
+     *
+     * @return the saved entity (the merged one after a conflict), or null if it could not be saved
+     * @throws UniqueConstraintViolation if a unique index already holds the entity's key
+     * @throws IllegalArgumentException if the entity is a projection
+     */
+    public T save(T object) {
+        checkNotProjection(object);
+        T entity = object;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                applyRevision(entity, write(entity));
+                return cache(entity);
+            } catch (CouchbaseLiteException e) {
+                if (e.getCBLStatus().getCode() != Status.CONFLICT) {
+                    e.printStackTrace();
+                    return null;
+                }
+                if (conflictResolver == null || attempt >= MAX_CONFLICT_RETRIES) {
+                    throw new ConflictException(entity, e);
+                }
+                T current = unserialize(database.getDocument(entity.getId()));
+                T merged = current == null ? null : conflictResolver.resolve(entity, current);
+                if (merged == null) {
+                    throw new ConflictException(entity, e);
+                }
+                merged.setRevisionId(current.getRevisionId());
+                entity = merged;
+            }
         }
+    }
 
-        return null;
+    /**
+     * Inserts the entity, or overwrites the document with the same id. When the id is derived
+     * from the entity (see {@link gq.ledo.couchbaseorm.annotations.Document#idFrom()}) the
+     * existing document is found directly by id, without querying any index.
+     */
+    public T upsert(T object) {
+        String id = object.getId() != null ? object.getId() : deriveId(object);
+        if (id != null) {
+            Document existing = database.getExistingDocument(id);
+            object.setId(id);
+            object.setRevisionId(existing == null ? null : existing.getCurrentRevisionId());
+        }
+
+        return save(object);
     }
 
-    public T save(T object) {
-        Document document = serialize(object);
+    /**
+     * Writes the entity, checking its unique indexes first within the same transaction.
+     */
+    private SavedRevision write(final T object) throws CouchbaseLiteException {
+        if (getUniqueIndexes().length == 0) {
+            return serialize(object);
+        }
+        final List<SavedRevision> revisions = new ArrayList<>(1);
+        final List<RuntimeException> violations = new ArrayList<>(1);
+        final List<CouchbaseLiteException> errors = new ArrayList<>(1);
+        boolean committed = database.runInTransaction(new TransactionalTask() {
+            @Override
+            public boolean run() {
+                try {
+                    checkUnique(object);
+                    revisions.add(serialize(object));
+                    return true;
+                } catch (UniqueConstraintViolation e) {
+                    violations.add(e);
+                } catch (CouchbaseLiteException e) {
+                    errors.add(e);
+                }
+                return false;
+            }
+        });
+        if (!violations.isEmpty()) {
+            throw violations.get(0);
+        }
+        if (!errors.isEmpty()) {
+            throw errors.get(0);
+        }
+        if (!committed) {
+            throw new CouchbaseLiteException("The transaction was rolled back.", Status.DB_ERROR);
+        }
 
-        return unserialize(document);
+        return revisions.get(0);
     }
 
-    public boolean delete(T object) {
-        Document document = database.getDocument(object.getId());
+    /**
+     * Looks the entity's key up in the view of every unique index, failing if another document
+     * already holds it. Entities missing an indexed property are not indexed, hence not checked.
+     */
+    void checkUnique(T object) throws CouchbaseLiteException {
+        IndexDefinition[] uniqueIndexes = getUniqueIndexes();
+        if (uniqueIndexes.length == 0) {
+            return;
+        }
+        Map<String, Object> properties = serializeProperties(object);
+        for (IndexDefinition index : uniqueIndexes) {
+            Object key = index.keyFor(properties);
+            if (key == null || (key instanceof List && ((List<?>) key).contains(null))) {
+                continue;
+            }
+            Query query = createIndexQuery(index, key);
+            query.setPrefetch(false);
+            query.setLimit(2);
+            for (QueryRow row : query.run()) {
+                if (!row.getDocumentId().equals(object.getId())) {
+                    throw new UniqueConstraintViolation(object, index, row.getDocumentId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the unique indexes of a batch of entities at once: keys are first compared within
+     * the batch, then looked up with a single query per index. Entities must have their id.
+     */
+    void checkUnique(Collection<T> objects) throws CouchbaseLiteException {
+        IndexDefinition[] uniqueIndexes = getUniqueIndexes();
+        if (uniqueIndexes.length == 0 || objects.isEmpty()) {
+            return;
+        }
+        List<Map<String, Object>> properties = new ArrayList<>(objects.size());
+        for (T object : objects) {
+            properties.add(serializeProperties(object));
+        }
+        for (IndexDefinition index : uniqueIndexes) {
+            Map<Object, T> owners = new HashMap<>();
+            List<Object> keys = new ArrayList<>();
+            int i = 0;
+            for (T object : objects) {
+                Object key = index.keyFor(properties.get(i++));
+                if (key == null || (key instanceof List && ((List<?>) key).contains(null))) {
+                    continue;
+                }
+                T owner = owners.put(normalizeKey(key), object);
+                if (owner == null) {
+                    keys.add(key);
+                } else if (!owner.getId().equals(object.getId())) {
+                    throw new UniqueConstraintViolation(object, index, owner.getId());
+                }
+            }
+            if (keys.isEmpty()) {
+                continue;
+            }
+            Query query = getIndexView(index).createQuery();
+            query.setKeys(keys);
+            query.setMapOnly(true);
+            query.setPrefetch(false);
+            for (QueryRow row : query.run()) {
+                T object = owners.get(normalizeKey(row.getKey()));
+                if (object != null && !row.getDocumentId().equals(object.getId())) {
+                    throw new UniqueConstraintViolation(object, index, row.getDocumentId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes keys read back from a view equal to the ones they were emitted from, whatever the
+     * number types they were decoded to.
+     */
+    private static Object normalizeKey(Object key) {
+        if (key instanceof Number) {
+            return new BigDecimal(key.toString()).stripTrailingZeros();
+        }
+        if (key instanceof List) {
+            List<Object> normalized = new ArrayList<>(((List<?>) key).size());
+            for (Object value : (List<?>) key) {
+                normalized.add(normalizeKey(value));
+            }
+            return normalized;
+        }
+
+        return key;
+    }
+
+    /**
+     * Indexes whose keys must not be shared by two documents, checked on every save. None by
+     * default.
+     */
+    protected IndexDefinition[] getUniqueIndexes() {
+        return NO_INDEXES;
+    }
+
+    /**
+     * Every index declared on the document, unique or not. None by default.
+     */
+    protected IndexDefinition[] getIndexes() {
+        return NO_INDEXES;
+    }
+
+    /**
+     * Every aggregate declared on the document. None by default.
+     */
+    protected AggregateDefinition[] getAggregates() {
+        return NO_AGGREGATES;
+    }
+
+    /**
+     * Returns every view of this repository: its type view, then its index and aggregate
+     * views, registering their map functions.
+     */
+    public List<View> getViews() {
+        IndexDefinition[] indexes = getIndexes();
+        AggregateDefinition[] aggregates = getAggregates();
+        List<View> views = new ArrayList<>(1 + indexes.length + aggregates.length);
+        views.add(typeView);
+        for (IndexDefinition index : indexes) {
+            views.add(getIndexView(index));
+        }
+        for (AggregateDefinition aggregate : aggregates) {
+            views.add(getAggregateView(aggregate));
+        }
+
+        return views;
+    }
+
+    /**
+     * Applies the change to the latest revision of the document, retrying on conflicts without
+     * any locking. Meant for small, hot updates such as counters.
+     *
+     * @return the updated entity, or null if the document does not exist or the update was cancelled
+     */
+    public T update(String id, final EntityUpdater<T> updater) {
+        final Document document = database.getExistingDocument(id);
+        if (document == null) {
+            return null;
+        }
+        final List<T> updated = new ArrayList<>(1);
         try {
-            return document.delete();
+            SavedRevision revision = document.update(new Document.DocumentUpdater() {
+                @Override
+                public boolean update(UnsavedRevision newRevision) {
+                    updated.clear();
+                    T entity = unserialize(newRevision.getProperties());
+                    entity.setRevisionId(newRevision.getParentId());
+                    if (!updater.update(entity)) {
+                        return false;
+                    }
+                    newRevision.setUserProperties(serializeProperties(entity));
+                    updated.add(entity);
+                    return true;
+                }
+            });
+            if (revision == null || updated.isEmpty()) {
+                return null;
+            }
+            T entity = updated.get(0);
+            applyRevision(entity, revision);
+
+            return cache(entity);
         } catch (CouchbaseLiteException e) {
             e.printStackTrace();
         }
-        return false;
+
+        return null;
+    }
+
+    /**
+     * Enables an identity map so repeated {@link #findOneById(String)} calls return the same
+     * entity without touching the document, as long as it has not been modified. Cached entities
+     * are shared, changes made to them are visible to every caller.
+     *
+     * @param maxSize maximum number of entities kept, least recently used ones are evicted first
+     */
+    public synchronized void enableCache(int maxSize) {
+        disableCache();
+        cache = new EntityCache<>(maxSize);
+        database.addChangeListener(cache);
+    }
+
+    public synchronized void disableCache() {
+        if (cache != null) {
+            database.removeChangeListener(cache);
+            cache = null;
+        }
+    }
+
+    private T cache(T entity) {
+        EntityCache<T> entityCache = cache;
+        if (entityCache != null && entity != null) {
+            entityCache.put(entity);
+        }
+
+        return entity;
+    }
+
+    /**
+     * Makes queries returning entities load the documents along with the rows, so each entity
+     * is built from {@link QueryRow#getDocumentProperties()} without fetching its document
+     * separately. Off by default.
+     */
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
     }
 
-    protected View createView(final String key, final Object value) {
-        String viewName = "view.{type}.{key}"
-                .replace("{type}", getType())
-                .replace("{key}", key);
+    public void setConflictResolver(ConflictResolver<T> conflictResolver) {
+        this.conflictResolver = conflictResolver;
+    }
 
-        View view = database.getView(viewName);
-        view.setMap(new Mapper() {
+    /**
+     * Saves every entity inside a single transaction. Entities that fail (e.g. on a revision
+     * conflict) are reported in the result without aborting the rest of the batch; the saved
+     * ones get their id and revision assigned in place once the transaction is committed.
+     *
+     * @throws UniqueConstraintViolation if an entity duplicates the key of a unique index, in which
+     *                                   case the whole batch is rolled back
+     * @throws IllegalArgumentException  if an entity is a projection, before anything is written
+     */
+    public BatchResult<T> saveAll(final Collection<T> objects) {
+        for (T object : objects) {
+            checkNotProjection(object);
+        }
+        final BatchResult<T> result = new BatchResult<>();
+        final List<T> saved = new ArrayList<>(objects.size());
+        final List<SavedRevision> revisions = new ArrayList<>(objects.size());
+        final List<RuntimeException> violations = new ArrayList<>(1);
+        boolean committed = database.runInTransaction(new TransactionalTask() {
             @Override
-            public void map(Map<String, Object> document, Emitter emitter) {
-                if (document.containsKey(key)) {
-                    String val = (String) document.get(key);
-                    if (val.equals(value)) {
-                        HashMap<String, String> res = new HashMap<>();
-                        res.put("_id", (String) document.get("_id"));
-                        emitter.emit(val, res);
+            public boolean run() {
+                for (T object : objects) {
+                    try {
+                        checkUnique(object);
+                        revisions.add(serialize(object));
+                        saved.add(object);
+                    } catch (CouchbaseLiteException e) {
+                        result.addFailure(object, e);
+                    } catch (UniqueConstraintViolation e) {
+                        violations.add(e);
+                        return false;
                     }
                 }
+                return true;
             }
-        }, String.valueOf(new Random().nextLong()));
+        });
+        if (!violations.isEmpty()) {
+            throw violations.get(0);
+        }
+        if (!committed) {
+            return rolledBack(objects);
+        }
+        for (int i = 0; i < saved.size(); i++) {
+            T object = saved.get(i);
+            applyRevision(object, revisions.get(i));
+            result.addSucceeded(cache(object));
+        }
 
-        return view;
+        return result;
     }
 
-    protected View createView(final Map<String, Object> keyValueMap) {
-        String random = String.valueOf(new Random().nextLong());
-        String viewName = "view." + getType() + "." + random;
-        View view = database.getView(viewName);
-        view.setMap(new Mapper() {
+    /**
+     * Deletes every entity inside a single transaction, reporting the ones that could not be
+     * deleted.
+     */
+    public BatchResult<T> deleteAll(final Collection<T> objects) {
+        final BatchResult<T> result = new BatchResult<>();
+        boolean committed = database.runInTransaction(new TransactionalTask() {
             @Override
-            public void map(Map<String, Object> document, Emitter emitter) {
-                HashMap<String, String> res = new HashMap<>();
-                int matchCount = 0;
-                for (String key : keyValueMap.keySet()) {
-                    Object value = keyValueMap.get(key);
-                    if (document.containsKey(key)) {
-                        if (value.equals(document.get(key))) {
-                            matchCount++;
-                        }
+            public boolean run() {
+                for (T object : objects) {
+                    Document document = database.getDocument(object.getId());
+                    try {
+                        document.delete();
+                        result.addSucceeded(object);
+                    } catch (CouchbaseLiteException e) {
+                        result.addFailure(object, e);
                     }
                 }
-                if (matchCount == keyValueMap.size()) {
-                    res.put("_id", (String) document.get("_id"));
-                    emitter.emit(keyValueMap, res);
-                }
+                return true;
             }
-        }, random);
+        });
+        if (!committed) {
+            return rolledBack(objects);
+        }
+
+        return result;
+    }
+
+    /**
+     * Tells whether the entity is a projection returned by this repository. Saving it would
+     * overwrite the properties it doesn't hold with their default values.
+     */
+    public boolean isProjection(T object) {
+        return projections.contains(object);
+    }
+
+    void checkNotProjection(T object) {
+        if (isProjection(object)) {
+            throw new IllegalArgumentException("Projections can't be saved: " + object.getId());
+        }
+    }
+
+    protected void applyRevision(T object, SavedRevision revision) {
+        object.setId(revision.getDocument().getId());
+        object.setRevisionId(revision.getId());
+    }
+
+    private BatchResult<T> rolledBack(Collection<T> objects) {
+        BatchResult<T> result = new BatchResult<>();
+        for (T object : objects) {
+            result.addFailure(object, new CouchbaseLiteException("The transaction was rolled back.", Status.DB_ERROR));
+        }
+
+        return result;
+    }
+
+    public boolean delete(T object) {
+        Document document = database.getDocument(object.getId());
+        try {
+            return document.delete();
+        } catch (CouchbaseLiteException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Returns the view listing every document of this repository's type, keyed by document id.
+     */
+    protected View getTypeView() {
+        return viewRegistry.getView("view." + getType() + "." + TYPE_FIELD,
+                getType(),
+                new TypeMapper(getType(), getProjection()),
+                COUNT_REDUCER,
+                viewVersion(TYPE_VIEW_VERSION));
+    }
+
+    /**
+     * Returns the persistent view backing the given index, registering its map function
+     * the first time it is used.
+     */
+    protected View getIndexView(IndexDefinition index) {
+        return viewRegistry.getView("view." + getType() + "." + index.getName(),
+                getType(),
+                new IndexMapper(getType(), index.getFields(), getProjection()),
+                COUNT_REDUCER,
+                viewVersion(index.getVersion()));
+    }
+
+    /**
+     * Returns the view computing the statistics of the given aggregate. Ungrouped views used to
+     * emit null keys, which were dropped: their version is suffixed so these empty indexes are
+     * rebuilt.
+     */
+    protected View getAggregateView(AggregateDefinition aggregate) {
+        String version = aggregate.getVersion();
+        if (aggregate.getGroupBy().length == 0) {
+            version += ".keyed";
+        }
+
+        return viewRegistry.getView("view." + getType() + "." + aggregate.getName(),
+                getType(),
+                new AggregateMapper(getType(), aggregate),
+                STATISTICS_REDUCER,
+                version);
+    }
+
+    /**
+     * Appends the projection to the map version, so views are rebuilt when it changes.
+     */
+    private String viewVersion(String version) {
+        String[] projection = getProjection();
+        if (projection.length == 0) {
+            return version;
+        }
+
+        return version + "." + IndexDefinition.version(projection);
+    }
+
+    /**
+     * Properties emitted as the value of every view row, in the order read by
+     * {@link #unserializeRow(QueryRow)}. None by default.
+     */
+    protected String[] getProjection() {
+        return NO_PROJECTION;
+    }
+
+    /**
+     * Creates a query over the rows of the index matching the given key. It uses a single key
+     * range rather than {@link Query#setKeys} so it can be combined with a {@link PageRequest}.
+     *
+     * @throws IllegalArgumentException if the key is or contains null: missing properties are
+     * not indexed, and a null bound would make the range unbounded
+     */
+    protected Query createIndexQuery(IndexDefinition index, Object key) {
+        if (key == null || (key instanceof List && ((List<?>) key).contains(null))) {
+            throw new IllegalArgumentException("Null values are not indexed: " + index.getName());
+        }
+        Query query = getIndexView(index).createQuery();
+        query.setStartKey(key);
+        query.setEndKey(key);
+        query.setMapOnly(true);
+        query.setPrefetch(prefetch);
+
+        return query;
+    }
+
+    protected Query createRangeQuery(IndexDefinition index, Object startKey, boolean inclusiveStart, Object endKey) {
+        Query query = getIndexView(index).createQuery();
+        query.setStartKey(startKey);
+        query.setInclusiveStart(inclusiveStart);
+        query.setEndKey(endKey);
+        query.setMapOnly(true);
+        query.setPrefetch(prefetch);
+
+        return query;
+    }
+
+    protected Query createAllQuery() {
+        Query query = typeView.createQuery();
+        query.setMapOnly(true);
+        query.setPrefetch(prefetch);
 
-        return view;
+        return query;
+    }
+
+    /**
+     * Creates a query over the index of the given properties. The index only emits documents
+     * of this type having all of them, keyed by their values, so rows need no further check.
+     */
+    protected Query createQuery(Map<String, Object> keyValueMap) {
+        IndexDefinition index = IndexDefinition.of(keyValueMap.keySet().toArray(new String[keyValueMap.size()]));
+
+        return createIndexQuery(index, index.keyFor(keyValueMap));
+    }
+
+    /**
+     * Projections are built from the row values alone, loading the documents would be wasted.
+     */
+    private Query withoutPrefetch(Query query) {
+        query.setPrefetch(false);
+
+        return query;
     }
 
     protected Document createDocument() {
@@ -190,30 +1022,244 @@ public abstract class BaseRepository<T extends CouchDocument> {
         if (object.getId() != null) {
             document = database.getDocument(object.getId());
         } else {
-            document = createDocument();
+            String id = deriveId(object);
+            if (id != null) {
+                // Set before writing, so a conflict with an existing document reports its id
+                object.setId(id);
+                document = database.getDocument(id);
+            } else {
+                document = createDocument();
+            }
         }
 
         return document;
     }
 
-    private boolean validateRow(Document document, Map<String, Object> keyValueMap) {
-        for (String key : keyValueMap.keySet()) {
-            Object value = keyValueMap.get(key);
-            Object property = document.getProperty(key);
-            if (property == null) {
-                return false;
+    /**
+     * Derives the id of a new entity from its properties. Returns null by default, so new
+     * documents get a random id.
+     */
+    protected String deriveId(T object) {
+        return null;
+    }
+
+    /**
+     * Joins the type and the values into a document id, escaping the separator. Returns null if
+     * any value is missing.
+     */
+    protected static String buildId(String type, Object... values) {
+        StringBuilder id = new StringBuilder(type);
+        for (Object value : values) {
+            if (value == null) {
+                return null;
             }
-            if (!property.equals(value)) {
-                return false;
+            id.append(':').append(value.toString().replace("\\", "\\\\").replace(":", "\\:"));
+        }
+
+        return id.toString();
+    }
+
+    /**
+     * Builds the value emitted for the document: the list of projected properties, or null if
+     * there is no projection.
+     */
+    private static Object project(Map<String, Object> document, String[] projection) {
+        if (projection.length == 0) {
+            return null;
+        }
+        List<Object> values = new ArrayList<>(projection.length);
+        for (String field : projection) {
+            values.add(document.get(field));
+        }
+
+        return values;
+    }
+
+    private static class TypeMapper implements Mapper {
+        private final String type;
+        private final String[] projection;
+
+        TypeMapper(String type, String[] projection) {
+            this.type = type;
+            this.projection = projection;
+        }
+
+        @Override
+        public void map(Map<String, Object> document, Emitter emitter) {
+            if (type.equals(document.get(TYPE_FIELD))) {
+                emitter.emit(document.get(ID_FIELD), project(document, projection));
+            }
+        }
+    }
+
+    /**
+     * Emits the indexed value (or the list of values, for compound indexes) as the key of
+     * every document of the given type having all the indexed properties. The value holds the
+     * projected properties, if any.
+     */
+    private static class IndexMapper implements Mapper {
+        private final String type;
+        private final String[] fields;
+        private final String[] projection;
+
+        IndexMapper(String type, String[] fields, String[] projection) {
+            this.type = type;
+            this.fields = fields;
+            this.projection = projection;
+        }
+
+        @Override
+        public void map(Map<String, Object> document, Emitter emitter) {
+            if (!type.equals(document.get(TYPE_FIELD))) {
+                return;
+            }
+            if (fields.length == 1) {
+                Object value = document.get(fields[0]);
+                if (value != null) {
+                    emitter.emit(value, project(document, projection));
+                }
+                return;
+            }
+            List<Object> key = new ArrayList<>(fields.length);
+            for (String field : fields) {
+                Object value = document.get(field);
+                if (value == null) {
+                    return;
+                }
+                key.add(value);
+            }
+            emitter.emit(key, project(document, projection));
+        }
+    }
+
+    /**
+     * Emits the aggregated property of every document of the given type having a numeric
+     * value for it, keyed by its group.
+     */
+    private static class AggregateMapper implements Mapper {
+        private final String type;
+        private final AggregateDefinition aggregate;
+
+        AggregateMapper(String type, AggregateDefinition aggregate) {
+            this.type = type;
+            this.aggregate = aggregate;
+        }
+
+        @Override
+        public void map(Map<String, Object> document, Emitter emitter) {
+            if (!type.equals(document.get(TYPE_FIELD))) {
+                return;
+            }
+            Object value = document.get(aggregate.getField());
+            if (value instanceof Number) {
+                emitter.emit(aggregate.keyFor(document), value);
+            }
+        }
+    }
+
+    /**
+     * Reduces the rows to their number.
+     */
+    private static class CountReducer implements Reducer {
+        @Override
+        public Object reduce(List<Object> keys, List<Object> values, boolean rereduce) {
+            if (!rereduce) {
+                return keys.size();
+            }
+            int count = 0;
+            for (Object value : values) {
+                count += ((Number) value).intValue();
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * Reduces the numeric values of the rows to their {@link Statistics}.
+     */
+    private static class StatisticsReducer implements Reducer {
+        @Override
+        public Object reduce(List<Object> keys, List<Object> values, boolean rereduce) {
+            long count = 0;
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (Object value : values) {
+                if (rereduce) {
+                    Statistics partial = Statistics.fromValue(value);
+                    if (partial.getCount() > 0) {
+                        count += partial.getCount();
+                        sum += partial.getSum();
+                        min = Math.min(min, partial.getMin());
+                        max = Math.max(max, partial.getMax());
+                    }
+                } else {
+                    double number = ((Number) value).doubleValue();
+                    count++;
+                    sum += number;
+                    min = Math.min(min, number);
+                    max = Math.max(max, number);
+                }
             }
+            Statistics statistics = count == 0 ? Statistics.empty() : new Statistics(count, sum, min, max);
+
+            return statistics.toValue();
+        }
+    }
+
+    /**
+     * Builds the entity from the prefetched document properties when available, loading the
+     * document otherwise.
+     */
+    protected T unserialize(QueryRow row) {
+        Map<String, Object> properties = row.getDocumentProperties();
+        if (properties != null) {
+            return unserialize(properties);
         }
 
-        return true;
+        return unserialize(row.getDocument());
+    }
+
+    /**
+     * Builds the projection of the entity from the values emitted by the view. Without a
+     * projection the whole entity is loaded instead.
+     */
+    protected T unserializeRow(QueryRow row) {
+        return unserialize(row);
     }
 
-    abstract protected T unserialize(Document document);
+    /**
+     * Reads the entity from the current revision of the document.
+     *
+     * @return the entity, or null if the document has no revision
+     */
+    protected T unserialize(Document document) {
+        Map<String, Object> properties = document.getProperties();
+        if (properties == null) {
+            return null;
+        }
+
+        return unserialize(properties);
+    }
+
+    /**
+     * Builds the entity from the document properties, including its id and revision.
+     */
+    abstract protected T unserialize(Map<String, Object> properties);
+
+    /**
+     * Writes the entity to its document.
+     *
+     * @return the revision created by the write
+     */
+    abstract protected SavedRevision serialize(T object) throws CouchbaseLiteException;
 
-    abstract protected Document serialize(T object);
+    /**
+     * Builds the properties to be stored for the given entity, including the revision it is
+     * based on.
+     */
+    abstract protected Map<String, Object> serializeProperties(T object);
 
     abstract protected String getType();
 }
@@ -0,0 +1,53 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.CouchbaseLiteException;
+import com.couchbase.lite.Status;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a batch operation: the entities that were written and the error raised for each
+ * one that was not.
+ */
+public class BatchResult<T> {
+
+    private final List<T> succeeded = new ArrayList<>();
+    private final Map<T, CouchbaseLiteException> failures = new IdentityHashMap<>();
+
+    void addSucceeded(T object) {
+        succeeded.add(object);
+    }
+
+    void addFailure(T object, CouchbaseLiteException e) {
+        failures.put(object, e);
+    }
+
+    public List<T> getSucceeded() {
+        return succeeded;
+    }
+
+    public Map<T, CouchbaseLiteException> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Entities that were not written because their revision was outdated.
+     */
+    public List<T> getConflicts() {
+        List<T> conflicts = new ArrayList<>();
+        for (Map.Entry<T, CouchbaseLiteException> failure : failures.entrySet()) {
+            if (failure.getValue().getCBLStatus().getCode() == Status.CONFLICT) {
+                conflicts.add(failure.getKey());
+            }
+        }
+
+        return conflicts;
+    }
+
+    public boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+}
@@ -0,0 +1,189 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.CouchbaseLiteException;
+import com.couchbase.lite.Document;
+import com.couchbase.lite.Status;
+import com.couchbase.lite.TransactionalTask;
+import com.couchbase.lite.View;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a large number of entities through a repository, committing one transaction per chunk
+ * instead of one per entity.
+ * <p>
+ * Entities are pulled from the iterator a chunk at a time and are neither cached nor updated
+ * with their new revision, so memory stays bounded by the chunk size (plus the reported
+ * failures) whatever the input size. Views are not touched while importing: their indexes are
+ * brought up to date once at the end, unless {@link #setUpdateIndexes(boolean)} is turned off.
+ * <p>
+ * Unique indexes are checked once per chunk: keys are compared within the chunk in memory,
+ * then looked up with a single query per index, so those views are updated once per chunk
+ * rather than once per entity. As with {@link BaseRepository#saveAll}, a violation rolls back
+ * the current chunk and is thrown; the chunks committed before it are kept.
+ * <p>
+ * Entities are written on top of the revision they carry, so importing an id that already
+ * exists fails with a conflict. To resync a dataset, turn {@link #setUpsert(boolean)} on: like
+ * {@link BaseRepository#upsert}, existing documents are then overwritten with their current
+ * revision, read inside the chunk transaction.
+ */
+public class BulkImporter<T extends CouchDocument> {
+
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    /**
+     * Notified on the importing thread after every committed chunk.
+     */
+    public interface ProgressListener {
+
+        void onProgress(ImportProgress progress);
+    }
+
+    private final BaseRepository<T> repository;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private boolean updateIndexes = true;
+    private boolean upsert;
+    private ProgressListener progressListener;
+
+    public BulkImporter(BaseRepository<T> repository) {
+        this.repository = repository;
+    }
+
+    public BulkImporter<T> setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size must be positive.");
+        }
+        this.chunkSize = chunkSize;
+
+        return this;
+    }
+
+    public BulkImporter<T> setUpdateIndexes(boolean updateIndexes) {
+        this.updateIndexes = updateIndexes;
+
+        return this;
+    }
+
+    /**
+     * Overwrites the documents that already exist instead of reporting a conflict for them.
+     * Off by default.
+     */
+    public BulkImporter<T> setUpsert(boolean upsert) {
+        this.upsert = upsert;
+
+        return this;
+    }
+
+    public BulkImporter<T> setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+
+        return this;
+    }
+
+    public ImportProgress importAll(Iterable<T> objects) {
+        return importAll(objects.iterator());
+    }
+
+    /**
+     * Writes every entity returned by the iterator. Entities without an id are given one
+     * first, derived or random, so failures can be reported by id.
+     *
+     * @return the number of entities written, the error of each one that failed, and the time
+     * it took including the index updates
+     */
+    public ImportProgress importAll(Iterator<T> objects) {
+        long start = System.nanoTime();
+        long imported = 0;
+        Map<String, CouchbaseLiteException> failures = new LinkedHashMap<>();
+        Map<String, CouchbaseLiteException> indexFailures = new LinkedHashMap<>();
+        List<T> chunk = new ArrayList<>(chunkSize);
+        while (objects.hasNext()) {
+            chunk.clear();
+            while (chunk.size() < chunkSize && objects.hasNext()) {
+                T object = objects.next();
+                repository.checkNotProjection(object);
+                assignId(object);
+                chunk.add(object);
+            }
+            imported += writeChunk(chunk, failures);
+            if (progressListener != null) {
+                progressListener.onProgress(new ImportProgress(imported, System.nanoTime() - start, failures, indexFailures));
+            }
+        }
+        if (updateIndexes) {
+            for (View view : repository.getViews()) {
+                try {
+                    view.updateIndex();
+                } catch (CouchbaseLiteException e) {
+                    indexFailures.put(view.getName(), e);
+                }
+            }
+        }
+
+        return new ImportProgress(imported, System.nanoTime() - start, failures, indexFailures);
+    }
+
+    private void assignId(T object) {
+        if (object.getId() == null) {
+            String id = repository.deriveId(object);
+            object.setId(id != null ? id : repository.createDocument().getId());
+        }
+    }
+
+    /**
+     * Writes the chunk in a single transaction, adding the error of every entity not written
+     * to the failures.
+     *
+     * @return the number of entities written, none if the transaction was rolled back
+     */
+    private int writeChunk(final List<T> chunk, Map<String, CouchbaseLiteException> failures) {
+        final Map<String, CouchbaseLiteException> chunkFailures = new LinkedHashMap<>();
+        final List<UniqueConstraintViolation> violations = new ArrayList<>(1);
+        final List<CouchbaseLiteException> errors = new ArrayList<>(1);
+        boolean committed = repository.database.runInTransaction(new TransactionalTask() {
+            @Override
+            public boolean run() {
+                try {
+                    repository.checkUnique(chunk);
+                } catch (UniqueConstraintViolation e) {
+                    violations.add(e);
+                    return false;
+                } catch (CouchbaseLiteException e) {
+                    errors.add(e);
+                    return false;
+                }
+                for (T object : chunk) {
+                    try {
+                        if (upsert) {
+                            Document existing = repository.database.getExistingDocument(object.getId());
+                            object.setRevisionId(existing == null ? null : existing.getCurrentRevisionId());
+                        }
+                        repository.serialize(object);
+                    } catch (CouchbaseLiteException e) {
+                        chunkFailures.put(object.getId(), e);
+                    }
+                }
+                return true;
+            }
+        });
+        if (!violations.isEmpty()) {
+            throw violations.get(0);
+        }
+        if (!committed) {
+            CouchbaseLiteException error = errors.isEmpty()
+                    ? new CouchbaseLiteException("The transaction was rolled back.", Status.DB_ERROR)
+                    : errors.get(0);
+            for (T object : chunk) {
+                failures.put(object.getId(), error);
+            }
+            return 0;
+        }
+        failures.putAll(chunkFailures);
+
+        return chunk.size() - chunkFailures.size();
+    }
+}
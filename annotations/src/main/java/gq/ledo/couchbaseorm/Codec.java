@@ -0,0 +1,13 @@
+package gq.ledo.couchbaseorm;
+
+/**
+ * Converts a field value to and from the value stored in the document.
+ *
+ * @see Codecs
+ */
+public interface Codec<T> {
+
+    Object encode(T value);
+
+    T decode(Object value);
+}
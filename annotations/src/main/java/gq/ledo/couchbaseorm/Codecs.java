@@ -0,0 +1,251 @@
+package gq.ledo.couchbaseorm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Codec}s for the property types without a direct JSON representation, composed by the
+ * generated repositories for every such field.
+ */
+public final class Codecs {
+
+    public static final Codec<String> STRING = new Codec<String>() {
+        @Override
+        public Object encode(String value) {
+            return value;
+        }
+
+        @Override
+        public String decode(Object value) {
+            return PropertyConverter.toStringOrNull(value);
+        }
+    };
+
+    public static final Codec<Byte> BYTE = new Codec<Byte>() {
+        @Override
+        public Object encode(Byte value) {
+            return value;
+        }
+
+        @Override
+        public Byte decode(Object value) {
+            return PropertyConverter.toByteOrNull(value);
+        }
+    };
+
+    public static final Codec<Short> SHORT = new Codec<Short>() {
+        @Override
+        public Object encode(Short value) {
+            return value;
+        }
+
+        @Override
+        public Short decode(Object value) {
+            return PropertyConverter.toShortOrNull(value);
+        }
+    };
+
+    public static final Codec<Integer> INTEGER = new Codec<Integer>() {
+        @Override
+        public Object encode(Integer value) {
+            return value;
+        }
+
+        @Override
+        public Integer decode(Object value) {
+            return PropertyConverter.toIntOrNull(value);
+        }
+    };
+
+    public static final Codec<Long> LONG = new Codec<Long>() {
+        @Override
+        public Object encode(Long value) {
+            return value;
+        }
+
+        @Override
+        public Long decode(Object value) {
+            return PropertyConverter.toLongOrNull(value);
+        }
+    };
+
+    public static final Codec<Float> FLOAT = new Codec<Float>() {
+        @Override
+        public Object encode(Float value) {
+            return value;
+        }
+
+        @Override
+        public Float decode(Object value) {
+            return PropertyConverter.toFloatOrNull(value);
+        }
+    };
+
+    public static final Codec<Double> DOUBLE = new Codec<Double>() {
+        @Override
+        public Object encode(Double value) {
+            return value;
+        }
+
+        @Override
+        public Double decode(Object value) {
+            return PropertyConverter.toDoubleOrNull(value);
+        }
+    };
+
+    public static final Codec<Character> CHARACTER = new Codec<Character>() {
+        @Override
+        public Object encode(Character value) {
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public Character decode(Object value) {
+            return PropertyConverter.toCharOrNull(value);
+        }
+    };
+
+    public static final Codec<Boolean> BOOLEAN = new Codec<Boolean>() {
+        @Override
+        public Object encode(Boolean value) {
+            return value;
+        }
+
+        @Override
+        public Boolean decode(Object value) {
+            return PropertyConverter.toBooleanOrNull(value);
+        }
+    };
+
+    /**
+     * Stores dates as milliseconds since the epoch.
+     */
+    public static final Codec<Date> DATE = new Codec<Date>() {
+        @Override
+        public Object encode(Date value) {
+            return value == null ? null : value.getTime();
+        }
+
+        @Override
+        public Date decode(Object value) {
+            return value == null ? null : new Date(((Number) value).longValue());
+        }
+    };
+
+    private Codecs() {
+    }
+
+    /**
+     * Stores enum constants by name, unknown names are read as null.
+     */
+    public static <E extends Enum<E>> Codec<E> enumByName(final Class<E> type) {
+        return new Codec<E>() {
+            @Override
+            public Object encode(E value) {
+                return value == null ? null : value.name();
+            }
+
+            @Override
+            public E decode(Object value) {
+                if (value == null) {
+                    return null;
+                }
+                try {
+                    return Enum.valueOf(type, value.toString());
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        };
+    }
+
+    /**
+     * Stores enum constants by ordinal, unknown ordinals are read as null.
+     */
+    public static <E extends Enum<E>> Codec<E> enumByOrdinal(Class<E> type) {
+        final E[] constants = type.getEnumConstants();
+
+        return new Codec<E>() {
+            @Override
+            public Object encode(E value) {
+                return value == null ? null : value.ordinal();
+            }
+
+            @Override
+            public E decode(Object value) {
+                if (value == null) {
+                    return null;
+                }
+                int ordinal = ((Number) value).intValue();
+
+                return ordinal >= 0 && ordinal < constants.length ? constants[ordinal] : null;
+            }
+        };
+    }
+
+    public static <E> Codec<List<E>> list(final Codec<E> codec) {
+        return new Codec<List<E>>() {
+            @Override
+            public Object encode(List<E> value) {
+                if (value == null) {
+                    return null;
+                }
+                List<Object> encoded = new ArrayList<>(value.size());
+                for (E item : value) {
+                    encoded.add(codec.encode(item));
+                }
+
+                return encoded;
+            }
+
+            @Override
+            public List<E> decode(Object value) {
+                if (value == null) {
+                    return null;
+                }
+                Collection<?> items = (Collection<?>) value;
+                List<E> decoded = new ArrayList<>(items.size());
+                for (Object item : items) {
+                    decoded.add(codec.decode(item));
+                }
+
+                return decoded;
+            }
+        };
+    }
+
+    public static <E> Codec<Map<String, E>> map(final Codec<E> codec) {
+        return new Codec<Map<String, E>>() {
+            @Override
+            public Object encode(Map<String, E> value) {
+                if (value == null) {
+                    return null;
+                }
+                Map<String, Object> encoded = new LinkedHashMap<>(value.size());
+                for (Map.Entry<String, E> entry : value.entrySet()) {
+                    encoded.put(entry.getKey(), codec.encode(entry.getValue()));
+                }
+
+                return encoded;
+            }
+
+            @Override
+            public Map<String, E> decode(Object value) {
+                if (value == null) {
+                    return null;
+                }
+                Map<?, ?> entries = (Map<?, ?>) value;
+                Map<String, E> decoded = new LinkedHashMap<>(entries.size());
+                for (Map.Entry<?, ?> entry : entries.entrySet()) {
+                    decoded.put(entry.getKey().toString(), codec.decode(entry.getValue()));
+                }
+
+                return decoded;
+            }
+        };
+    }
+}
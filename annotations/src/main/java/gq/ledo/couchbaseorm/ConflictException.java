@@ -0,0 +1,21 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.CouchbaseLiteException;
+
+/**
+ * Thrown when an entity could not be saved because it was modified since it was loaded, and
+ * the conflict was not resolved.
+ */
+public class ConflictException extends RuntimeException {
+
+    private final CouchDocument entity;
+
+    public ConflictException(CouchDocument entity, CouchbaseLiteException cause) {
+        super("Document " + entity.getId() + " was modified since revision " + entity.getRevisionId(), cause);
+        this.entity = entity;
+    }
+
+    public CouchDocument getEntity() {
+        return entity;
+    }
+}
@@ -0,0 +1,15 @@
+package gq.ledo.couchbaseorm;
+
+/**
+ * Merges an entity that could not be saved because its revision was outdated with the one
+ * currently stored.
+ */
+public interface ConflictResolver<T extends CouchDocument> {
+
+    /**
+     * @param local   the entity being saved
+     * @param current the entity as currently stored, carrying the latest revision
+     * @return the entity to save on top of the current revision, or null to give up
+     */
+    T resolve(T local, T current);
+}
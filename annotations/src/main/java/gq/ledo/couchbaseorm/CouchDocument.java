@@ -6,4 +6,10 @@ package gq.ledo.couchbaseorm;
 
 public interface CouchDocument {
     String getId();
+
+    void setId(String id);
+
+    String getRevisionId();
+
+    void setRevisionId(String revisionId);
 }
@@ -0,0 +1,77 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.Database;
+import com.couchbase.lite.DocumentChange;
+
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded, least recently used identity map of entities keyed by document id.
+ * <p>
+ * Entities are weakly referenced, so they are only kept while the application still uses them,
+ * and each one is dropped as soon as the database reports a revision of its document other
+ * than the cached one.
+ */
+public class EntityCache<T extends CouchDocument> implements Database.ChangeListener {
+
+    private final Map<String, CacheEntry<T>> entries;
+
+    public EntityCache(final int maxSize) {
+        entries = new LinkedHashMap<String, CacheEntry<T>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<T>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public synchronized T get(String id) {
+        CacheEntry<T> entry = entries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        T entity = entry.entity.get();
+        if (entity == null || !entry.revisionId.equals(entity.getRevisionId())) {
+            entries.remove(id);
+            return null;
+        }
+
+        return entity;
+    }
+
+    public synchronized void put(T entity) {
+        if (entity.getId() != null && entity.getRevisionId() != null) {
+            entries.put(entity.getId(), new CacheEntry<>(entity));
+        }
+    }
+
+    public synchronized void invalidate(String id) {
+        entries.remove(id);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public synchronized void changed(Database.ChangeEvent event) {
+        for (DocumentChange change : event.getChanges()) {
+            CacheEntry<T> entry = entries.get(change.getDocumentId());
+            if (entry != null && !entry.revisionId.equals(change.getRevisionId())) {
+                entries.remove(change.getDocumentId());
+            }
+        }
+    }
+
+    private static class CacheEntry<T extends CouchDocument> {
+        private final WeakReference<T> entity;
+        private final String revisionId;
+
+        CacheEntry(T entity) {
+            this.entity = new WeakReference<>(entity);
+            this.revisionId = entity.getRevisionId();
+        }
+    }
+}
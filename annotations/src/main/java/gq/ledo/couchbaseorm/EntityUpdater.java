@@ -0,0 +1,13 @@
+package gq.ledo.couchbaseorm;
+
+/**
+ * Applies a change to the latest revision of an entity. It may be called several times if the
+ * document is concurrently modified, so it must not have side effects.
+ */
+public interface EntityUpdater<T extends CouchDocument> {
+
+    /**
+     * @return false to cancel the update
+     */
+    boolean update(T entity);
+}
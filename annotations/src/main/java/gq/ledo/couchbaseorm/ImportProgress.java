@@ -0,0 +1,81 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.CouchbaseLiteException;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of a {@link BulkImporter} run: how many entities were written or failed so far, and
+ * how long it took.
+ * <p>
+ * Like a {@link BatchResult}, it lists the error raised for every entity that was not written,
+ * keyed by its document id, along with the error of every view whose index could not be
+ * updated at the end.
+ */
+public class ImportProgress {
+
+    private final long imported;
+    private final long failed;
+    private final long elapsedNanos;
+    private final Map<String, CouchbaseLiteException> failures;
+    private final Map<String, CouchbaseLiteException> indexFailures;
+
+    ImportProgress(long imported, long elapsedNanos, Map<String, CouchbaseLiteException> failures,
+                   Map<String, CouchbaseLiteException> indexFailures) {
+        this.imported = imported;
+        this.failed = failures.size();
+        this.elapsedNanos = elapsedNanos;
+        this.failures = Collections.unmodifiableMap(failures);
+        this.indexFailures = Collections.unmodifiableMap(indexFailures);
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * The error of every entity that was not written, by document id. For the progress
+     * reported during an import, it keeps growing until the import ends.
+     */
+    public Map<String, CouchbaseLiteException> getFailures() {
+        return failures;
+    }
+
+    /**
+     * The error of every view whose index could not be updated, by view name.
+     */
+    public Map<String, CouchbaseLiteException> getIndexFailures() {
+        return indexFailures;
+    }
+
+    public boolean isSuccessful() {
+        return failures.isEmpty() && indexFailures.isEmpty();
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * Entities written per second since the import started.
+     */
+    public double getDocumentsPerSecond() {
+        if (elapsedNanos == 0) {
+            return 0;
+        }
+
+        return imported * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d imported, %d failed in %d ms (%.0f docs/s)",
+                imported, getFailed(), getElapsedMillis(), getDocumentsPerSecond());
+    }
+}
@@ -0,0 +1,78 @@
+package gq.ledo.couchbaseorm;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes a persistent view indexing one or more document properties.
+ * <p>
+ * The name and the map version are derived from the (sorted) property names, so the same
+ * definition always resolves to the same view and its index is only rebuilt when the
+ * definition itself changes.
+ */
+public class IndexDefinition {
+
+    /**
+     * Bump whenever the way {@link BaseRepository} maps documents into index views changes.
+     * Reduce functions are applied at query time, so changing them does not require it.
+     */
+    static final String FORMAT = "1";
+    private static final String PREFIX = "index.";
+
+    private final String name;
+    private final String[] fields;
+    private final String version;
+
+    public IndexDefinition(String name, String[] fields, String version) {
+        this.name = name;
+        this.fields = fields;
+        this.version = version;
+    }
+
+    public static IndexDefinition of(String... fields) {
+        String[] sorted = fields.clone();
+        Arrays.sort(sorted);
+
+        return new IndexDefinition(PREFIX + Joiner.on('.').join(sorted), sorted, version(sorted));
+    }
+
+    public static String version(String... fields) {
+        String definition = FORMAT + ":" + Joiner.on(',').join(fields);
+
+        return Hashing.murmur3_32().hashString(definition, Charsets.UTF_8).toString();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String[] getFields() {
+        return fields;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Builds the view key for the given property values: the raw value for single field
+     * indexes, a list of values (in field order) otherwise.
+     */
+    public Object keyFor(Map<String, Object> keyValueMap) {
+        if (fields.length == 1) {
+            return keyValueMap.get(fields[0]);
+        }
+        List<Object> key = new ArrayList<>(fields.length);
+        for (String field : fields) {
+            key.add(keyValueMap.get(field));
+        }
+
+        return key;
+    }
+}
@@ -0,0 +1,39 @@
+package gq.ledo.couchbaseorm;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A slice of a query result, along with the request needed to fetch the following one.
+ */
+public class Page<T> implements Iterable<T> {
+
+    private final List<T> items;
+    private final PageRequest nextPageRequest;
+
+    public Page(List<T> items, PageRequest nextPageRequest) {
+        this.items = items;
+        this.nextPageRequest = nextPageRequest;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public boolean hasNext() {
+        return nextPageRequest != null;
+    }
+
+    /**
+     * Keyset continuation starting after the last row of this page, or null if this is the
+     * last one.
+     */
+    public PageRequest nextPageRequest() {
+        return nextPageRequest;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return items.iterator();
+    }
+}
@@ -0,0 +1,86 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.Query;
+
+/**
+ * Describes which slice of a query to fetch: a page size, an offset or a keyset continuation
+ * (the key and document id of the last row already seen) and the ordering.
+ * <p>
+ * Instances are immutable; use {@link Page#nextPageRequest()} to continue from a previous page
+ * instead of increasing the offset, so following pages start right after the last row without
+ * scanning the previous ones.
+ */
+public class PageRequest {
+
+    private final int limit;
+    private final int skip;
+    private final boolean descending;
+    private final Object startKey;
+    private final String startKeyDocId;
+
+    private PageRequest(int limit, int skip, boolean descending, Object startKey, String startKeyDocId) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("The page limit must be greater than 0.");
+        }
+        if (skip < 0) {
+            throw new IllegalArgumentException("The page offset must not be negative.");
+        }
+        this.limit = limit;
+        this.skip = skip;
+        this.descending = descending;
+        this.startKey = startKey;
+        this.startKeyDocId = startKeyDocId;
+    }
+
+    public static PageRequest of(int limit) {
+        return new PageRequest(limit, 0, false, null, null);
+    }
+
+    public static PageRequest of(int limit, int skip) {
+        return new PageRequest(limit, skip, false, null, null);
+    }
+
+    public PageRequest descending() {
+        return new PageRequest(limit, skip, true, startKey, startKeyDocId);
+    }
+
+    /**
+     * Continues right after the row with the given key and document id.
+     */
+    public PageRequest after(Object key, String docId) {
+        return new PageRequest(limit, 0, descending, key, docId);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getSkip() {
+        return skip;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public Object getStartKey() {
+        return startKey;
+    }
+
+    public String getStartKeyDocId() {
+        return startKeyDocId;
+    }
+
+    void applyTo(Query query) {
+        query.setLimit(limit);
+        query.setDescending(descending);
+        if (startKeyDocId != null) {
+            query.setStartKey(startKey);
+            query.setStartKeyDocId(startKeyDocId);
+            // The start row is inclusive, skip the one already returned by the previous page
+            query.setSkip(1);
+        } else {
+            query.setSkip(skip);
+        }
+    }
+}
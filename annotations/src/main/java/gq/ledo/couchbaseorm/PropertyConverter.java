@@ -0,0 +1,108 @@
+package gq.ledo.couchbaseorm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts raw document property values into field types.
+ * <p>
+ * JSON numbers may come back as any {@link Number} subclass (Integer, Long or Double) whatever
+ * type they were stored with, so numbers are always converted through {@link Number}. Missing
+ * values become the default value of primitive types instead of failing on unboxing.
+ */
+public final class PropertyConverter {
+
+    private PropertyConverter() {
+    }
+
+    public static byte toByte(Object value) {
+        return value == null ? 0 : ((Number) value).byteValue();
+    }
+
+    public static short toShort(Object value) {
+        return value == null ? 0 : ((Number) value).shortValue();
+    }
+
+    public static int toInt(Object value) {
+        return value == null ? 0 : ((Number) value).intValue();
+    }
+
+    public static long toLong(Object value) {
+        return value == null ? 0L : ((Number) value).longValue();
+    }
+
+    public static float toFloat(Object value) {
+        return value == null ? 0f : ((Number) value).floatValue();
+    }
+
+    public static double toDouble(Object value) {
+        return value == null ? 0d : ((Number) value).doubleValue();
+    }
+
+    public static char toChar(Object value) {
+        Character character = toCharOrNull(value);
+
+        return character == null ? '\0' : character;
+    }
+
+    public static boolean toBoolean(Object value) {
+        return value != null && (Boolean) value;
+    }
+
+    public static Byte toByteOrNull(Object value) {
+        return value == null ? null : ((Number) value).byteValue();
+    }
+
+    public static Short toShortOrNull(Object value) {
+        return value == null ? null : ((Number) value).shortValue();
+    }
+
+    public static Integer toIntOrNull(Object value) {
+        return value == null ? null : ((Number) value).intValue();
+    }
+
+    public static Long toLongOrNull(Object value) {
+        return value == null ? null : ((Number) value).longValue();
+    }
+
+    public static Float toFloatOrNull(Object value) {
+        return value == null ? null : ((Number) value).floatValue();
+    }
+
+    public static Double toDoubleOrNull(Object value) {
+        return value == null ? null : ((Number) value).doubleValue();
+    }
+
+    /**
+     * Reads the first character of the stored string, null if missing or empty.
+     */
+    public static Character toCharOrNull(Object value) {
+        if (value == null) {
+            return null;
+        }
+        String string = value.toString();
+
+        return string.isEmpty() ? null : string.charAt(0);
+    }
+
+    public static Boolean toBooleanOrNull(Object value) {
+        return (Boolean) value;
+    }
+
+    public static String toStringOrNull(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    public static List<String> toStringList(Object value) {
+        if (value == null) {
+            return null;
+        }
+        List<?> values = (List<?>) value;
+        List<String> strings = new ArrayList<>(values.size());
+        for (Object item : values) {
+            strings.add(toStringOrNull(item));
+        }
+
+        return strings;
+    }
+}
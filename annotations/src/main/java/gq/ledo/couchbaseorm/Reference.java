@@ -0,0 +1,82 @@
+package gq.ledo.couchbaseorm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lazy reference to another document, loaded through its repository the first time it is
+ * accessed. References of a whole result can be loaded at once with
+ * {@link #resolveAll(Collection, BaseRepository)}.
+ */
+public class Reference<T extends CouchDocument> {
+
+    private final String id;
+    private final BaseRepository<T> repository;
+    private T entity;
+    private boolean resolved;
+
+    public Reference(String id, BaseRepository<T> repository) {
+        this.id = id;
+        this.repository = repository;
+    }
+
+    /**
+     * Creates an already resolved reference to the entity.
+     */
+    public static <T extends CouchDocument> Reference<T> to(T entity) {
+        Reference<T> reference = new Reference<>(entity.getId(), null);
+        reference.resolve(entity);
+
+        return reference;
+    }
+
+    /**
+     * Returns the id of the referenced document. For resolved references it is read from the
+     * entity, so entities saved after being referenced are stored with their id.
+     */
+    public synchronized String getId() {
+        if (resolved && entity != null) {
+            return entity.getId();
+        }
+
+        return id;
+    }
+
+    public synchronized T get() {
+        if (!resolved) {
+            resolve(id == null ? null : repository.findOneById(id));
+        }
+
+        return entity;
+    }
+
+    public synchronized boolean isResolved() {
+        return resolved;
+    }
+
+    synchronized void resolve(T entity) {
+        this.entity = entity;
+        this.resolved = true;
+    }
+
+    /**
+     * Loads every unresolved reference with a single query.
+     */
+    public static <T extends CouchDocument> void resolveAll(Collection<Reference<T>> references, BaseRepository<T> repository) {
+        List<String> ids = new ArrayList<>(references.size());
+        for (Reference<T> reference : references) {
+            if (!reference.isResolved() && reference.getId() != null) {
+                ids.add(reference.getId());
+            }
+        }
+        Map<String, T> entities = repository.findAllById(ids);
+        for (Reference<T> reference : references) {
+            if (!reference.isResolved()) {
+                reference.resolve(entities.get(reference.getId()));
+            }
+        }
+    }
+}
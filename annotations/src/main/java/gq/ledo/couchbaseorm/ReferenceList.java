@@ -0,0 +1,119 @@
+package gq.ledo.couchbaseorm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lazy list of references to other documents, all loaded with a single query the first time
+ * the list is accessed. Missing documents are left out of {@link #get()}, but their ids are
+ * kept, so saving the owner again does not drop references that can't be resolved yet.
+ * Entities added to or removed from {@link #get()} are added to or removed from the ids.
+ */
+public class ReferenceList<T extends CouchDocument> {
+
+    private final List<String> ids;
+    private final BaseRepository<T> repository;
+    private List<T> entities;
+    private Set<String> unresolved = Collections.emptySet();
+    private boolean fromEntities;
+
+    public ReferenceList(List<String> ids, BaseRepository<T> repository) {
+        this.ids = ids == null ? Collections.<String>emptyList() : ids;
+        this.repository = repository;
+    }
+
+    /**
+     * Creates an already resolved list of references to the entities.
+     */
+    public static <T extends CouchDocument> ReferenceList<T> to(List<T> entities) {
+        ReferenceList<T> references = new ReferenceList<>(null, null);
+        references.resolve(entities);
+        references.fromEntities = true;
+
+        return references;
+    }
+
+    /**
+     * Returns the ids of the referenced documents. Once resolved, they are read from the
+     * entities of {@link #get()}, so entities saved after being referenced are stored with their
+     * id and removed ones are dropped. Loaded lists keep the stored order, with the ids that
+     * could not be resolved, followed by the ids of the entities added since.
+     */
+    public synchronized List<String> getIds() {
+        if (entities == null) {
+            return ids;
+        }
+        Set<String> current = new LinkedHashSet<>();
+        for (T entity : entities) {
+            if (entity.getId() != null) {
+                current.add(entity.getId());
+            }
+        }
+        List<String> entityIds = new ArrayList<>(ids.size() + current.size());
+        if (!fromEntities) {
+            for (String id : ids) {
+                if (current.remove(id) || unresolved.contains(id)) {
+                    entityIds.add(id);
+                }
+            }
+        }
+        entityIds.addAll(current);
+
+        return entityIds;
+    }
+
+    public synchronized List<T> get() {
+        if (entities == null) {
+            resolveFrom(repository.findAllById(ids));
+        }
+
+        return entities;
+    }
+
+    public synchronized boolean isResolved() {
+        return entities != null;
+    }
+
+    synchronized void resolve(List<T> entities) {
+        this.entities = entities;
+    }
+
+    private synchronized void resolveFrom(Map<String, T> loaded) {
+        List<T> resolved = new ArrayList<>(ids.size());
+        Set<String> missing = new HashSet<>();
+        for (String id : ids) {
+            T entity = loaded.get(id);
+            if (entity != null) {
+                resolved.add(entity);
+            } else {
+                missing.add(id);
+            }
+        }
+        this.entities = resolved;
+        this.unresolved = missing;
+    }
+
+    /**
+     * Loads the entities of every unresolved list with a single query.
+     */
+    public static <T extends CouchDocument> void resolveAll(Collection<ReferenceList<T>> references, BaseRepository<T> repository) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (ReferenceList<T> reference : references) {
+            if (!reference.isResolved()) {
+                ids.addAll(reference.getIds());
+            }
+        }
+        Map<String, T> entities = repository.findAllById(ids);
+        for (ReferenceList<T> reference : references) {
+            if (!reference.isResolved()) {
+                reference.resolveFrom(entities);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.QueryEnumerator;
+import com.couchbase.lite.QueryRow;
+import com.google.common.base.Function;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Single pass iterator over the rows of a query, unserializing each entity only when it is
+ * requested. Closing the cursor stops the iteration and releases the underlying rows.
+ */
+public class RepositoryCursor<T> implements Iterator<T>, Closeable {
+
+    private QueryEnumerator rows;
+    private final Function<QueryRow, T> unserializer;
+
+    public RepositoryCursor(QueryEnumerator rows, Function<QueryRow, T> unserializer) {
+        this.rows = rows;
+        this.unserializer = unserializer;
+    }
+
+    /**
+     * Number of rows returned by the query, regardless of how many have been consumed.
+     */
+    public int getCount() {
+        return rows == null ? 0 : rows.getCount();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return rows != null && rows.hasNext();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return unserializer.apply(rows.next());
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        rows = null;
+    }
+}
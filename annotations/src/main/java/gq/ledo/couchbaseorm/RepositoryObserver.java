@@ -0,0 +1,101 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.LiveQuery;
+import com.couchbase.lite.QueryEnumerator;
+import com.couchbase.lite.QueryRow;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the result of a {@link LiveQuery} materialized, notifying a listener of what changed
+ * every time it is updated.
+ * <p>
+ * Entities are remembered along with the sequence of the revision they were read from, so on
+ * each update only the rows of new or modified documents are unserialized.
+ */
+public class RepositoryObserver<T extends CouchDocument> implements LiveQuery.ChangeListener {
+
+    private final BaseRepository<T> repository;
+    private final LiveQuery liveQuery;
+    private final ResultChangeListener<T> listener;
+    private Map<String, Materialized<T>> materialized = new LinkedHashMap<>();
+
+    RepositoryObserver(BaseRepository<T> repository, LiveQuery liveQuery, ResultChangeListener<T> listener) {
+        this.repository = repository;
+        this.liveQuery = liveQuery;
+        this.listener = listener;
+    }
+
+    void start() {
+        liveQuery.addChangeListener(this);
+        liveQuery.start();
+    }
+
+    public void stop() {
+        liveQuery.removeChangeListener(this);
+        liveQuery.stop();
+    }
+
+    /**
+     * Entities of the last notified result.
+     */
+    public synchronized List<T> getItems() {
+        List<T> items = new ArrayList<>(materialized.size());
+        for (Materialized<T> entry : materialized.values()) {
+            items.add(entry.entity);
+        }
+
+        return items;
+    }
+
+    @Override
+    public void changed(LiveQuery.ChangeEvent event) {
+        QueryEnumerator rows = event.getRows();
+        if (event.getError() != null || rows == null) {
+            return;
+        }
+        listener.onResultChanged(update(rows));
+    }
+
+    private synchronized ResultChange<T> update(QueryEnumerator rows) {
+        Map<String, Materialized<T>> previous = materialized;
+        Map<String, Materialized<T>> current = new LinkedHashMap<>(rows.getCount());
+        List<T> items = new ArrayList<>(rows.getCount());
+        Set<String> inserted = new HashSet<>();
+        Set<String> changed = new HashSet<>();
+        for (QueryRow row : rows) {
+            String id = row.getDocumentId();
+            Materialized<T> entry = previous.get(id);
+            if (entry == null || entry.sequence != row.getSequenceNumber()) {
+                if (entry == null) {
+                    inserted.add(id);
+                } else {
+                    changed.add(id);
+                }
+                entry = new Materialized<>(repository.unserialize(row), row.getSequenceNumber());
+            }
+            current.put(id, entry);
+            items.add(entry.entity);
+        }
+        Set<String> removed = new HashSet<>(previous.keySet());
+        removed.removeAll(current.keySet());
+        materialized = current;
+
+        return new ResultChange<>(items, inserted, removed, changed);
+    }
+
+    private static class Materialized<T> {
+        private final T entity;
+        private final long sequence;
+
+        Materialized(T entity, long sequence) {
+            this.entity = entity;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package gq.ledo.couchbaseorm;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * New state of an observed query, along with the ids of the documents that were inserted
+ * into, removed from or changed within the result since the previous notification.
+ */
+public class ResultChange<T> {
+
+    private final List<T> items;
+    private final Set<String> inserted;
+    private final Set<String> removed;
+    private final Set<String> changed;
+
+    public ResultChange(List<T> items, Set<String> inserted, Set<String> removed, Set<String> changed) {
+        this.items = items;
+        this.inserted = inserted;
+        this.removed = removed;
+        this.changed = changed;
+    }
+
+    /**
+     * Every entity in the result, in query order. Entities whose document did not change are
+     * the same instances delivered in previous notifications.
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    public Set<String> getInserted() {
+        return inserted;
+    }
+
+    public Set<String> getRemoved() {
+        return removed;
+    }
+
+    public Set<String> getChanged() {
+        return changed;
+    }
+
+    public boolean isEmpty() {
+        return inserted.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+}
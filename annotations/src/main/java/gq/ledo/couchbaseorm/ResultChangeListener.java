@@ -0,0 +1,9 @@
+package gq.ledo.couchbaseorm;
+
+/**
+ * Receives the changes of an observed query. It is called on a background thread.
+ */
+public interface ResultChangeListener<T> {
+
+    void onResultChanged(ResultChange<T> change);
+}
@@ -0,0 +1,79 @@
+package gq.ledo.couchbaseorm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Count, sum, minimum and maximum of a numeric property, as computed by an aggregate view.
+ */
+public class Statistics {
+
+    private static final Statistics EMPTY = new Statistics(0, 0, Double.NaN, Double.NaN);
+
+    private final long count;
+    private final double sum;
+    private final double min;
+    private final double max;
+
+    public Statistics(long count, double sum, double min, double max) {
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Minimum value, NaN if there are no values.
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Maximum value, NaN if there are no values.
+     */
+    public double getMax() {
+        return max;
+    }
+
+    public double getAverage() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    static Statistics empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Reads the value produced by {@link #toValue()}.
+     */
+    static Statistics fromValue(Object value) {
+        if (value == null) {
+            return EMPTY;
+        }
+        Map<?, ?> map = (Map<?, ?>) value;
+
+        return new Statistics(((Number) map.get("count")).longValue(),
+                ((Number) map.get("sum")).doubleValue(),
+                ((Number) map.get("min")).doubleValue(),
+                ((Number) map.get("max")).doubleValue());
+    }
+
+    Map<String, Object> toValue() {
+        Map<String, Object> value = new HashMap<>(4);
+        value.put("count", count);
+        value.put("sum", sum);
+        value.put("min", min);
+        value.put("max", max);
+
+        return value;
+    }
+}
@@ -0,0 +1,33 @@
+package gq.ledo.couchbaseorm;
+
+/**
+ * Thrown when saving an entity would duplicate the key of a unique index. Nothing is written.
+ */
+public class UniqueConstraintViolation extends RuntimeException {
+
+    private final CouchDocument entity;
+    private final IndexDefinition index;
+    private final String existingId;
+
+    public UniqueConstraintViolation(CouchDocument entity, IndexDefinition index, String existingId) {
+        super("Document " + existingId + " already has the same value for " + index.getName());
+        this.entity = entity;
+        this.index = index;
+        this.existingId = existingId;
+    }
+
+    public CouchDocument getEntity() {
+        return entity;
+    }
+
+    public IndexDefinition getIndex() {
+        return index;
+    }
+
+    /**
+     * Id of the document already holding the key.
+     */
+    public String getExistingId() {
+        return existingId;
+    }
+}
@@ -0,0 +1,110 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.Database;
+import com.couchbase.lite.Mapper;
+import com.couchbase.lite.Reducer;
+import com.couchbase.lite.View;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps track of the views whose map function has already been registered on a database, so
+ * every repository working on the same {@link Database} shares them and
+ * {@link View#setMapReduce} is only called once per view.
+ */
+public class ViewRegistry {
+
+    private static final Map<Database, ViewRegistry> registries = new WeakHashMap<>();
+
+    private final WeakReference<Database> database;
+    private final Set<String> registered = new HashSet<>();
+
+    private ViewRegistry(Database database) {
+        this.database = new WeakReference<>(database);
+    }
+
+    public static synchronized ViewRegistry forDatabase(Database database) {
+        ViewRegistry registry = registries.get(database);
+        if (registry == null) {
+            registry = new ViewRegistry(database);
+            registries.put(database, registry);
+        }
+
+        return registry;
+    }
+
+    public View getView(String name, String documentType, Mapper mapper, String version) {
+        return getView(name, documentType, mapper, null, version);
+    }
+
+    /**
+     * Returns the named view, setting its map and reduce functions with the given version the
+     * first time it is requested.
+     */
+    public synchronized View getView(String name, String documentType, Mapper mapper, Reducer reducer, String version) {
+        Database db = database.get();
+        if (db == null) {
+            throw new IllegalStateException("The database has been released.");
+        }
+        View view = db.getView(name);
+        if (registered.add(name)) {
+            view.setDocumentType(documentType);
+            view.setMapReduce(mapper, reducer, version);
+        }
+
+        return view;
+    }
+
+    /**
+     * Lists the views on the executor, then brings their indexes up to date as
+     * {@link #updateIndexes(Collection, Executor)} does. Nothing runs on the calling thread, as
+     * listing the views may create them.
+     */
+    public static ListenableFuture<List<View>> updateIndexes(Callable<? extends Collection<View>> views, final Executor executor) {
+        ListenableFutureTask<? extends Collection<View>> listing = ListenableFutureTask.create(views);
+        executor.execute(listing);
+
+        return Futures.transformAsync(listing, new AsyncFunction<Collection<View>, List<View>>() {
+            @Override
+            public ListenableFuture<List<View>> apply(Collection<View> listed) {
+                return updateIndexes(listed, executor);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Brings the index of every given view up to date, each in its own task on the executor.
+     * The future completes with the views once all of them are indexed, or fails with the first
+     * error.
+     */
+    public static ListenableFuture<List<View>> updateIndexes(Collection<View> views, Executor executor) {
+        List<ListenableFuture<View>> updates = new ArrayList<>(views.size());
+        for (final View view : views) {
+            ListenableFutureTask<View> update = ListenableFutureTask.create(new Callable<View>() {
+                @Override
+                public View call() throws Exception {
+                    view.updateIndex();
+                    return view;
+                }
+            });
+            executor.execute(update);
+            updates.add(update);
+        }
+
+        return Futures.allAsList(updates);
+    }
+}
@@ -0,0 +1,19 @@
+package gq.ledo.couchbaseorm.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generates a view computing the count, sum, minimum and maximum of a numeric property, along
+ * with {@code aggregateX()} methods reading them without loading any entity.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface Aggregate {
+    /**
+     * Properties to group the statistics by, generating an {@code aggregateXBy...()} method.
+     */
+    String[] groupBy() default {};
+}
@@ -8,9 +8,14 @@ import java.lang.annotation.Target;
 /**
  * Created by Eduardo Ledo <eduardo.ledo@gmail.com> on 14/11/2017.
  */
-@Retention(RetentionPolicy.SOURCE)
+@Retention(RetentionPolicy.CLASS)
 @Target(ElementType.TYPE)
 public @interface Document {
     String type();
     Index[] indexes() default {};
+    /**
+     * Properties the document id is derived from, so entities can be addressed by their
+     * natural key without querying an index. The id is random if empty.
+     */
+    String[] idFrom() default {};
 }
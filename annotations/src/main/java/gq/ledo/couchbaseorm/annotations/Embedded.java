@@ -0,0 +1,15 @@
+package gq.ledo.couchbaseorm.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class stored inside other documents as a nested map of its properties. A proxy and
+ * a codec are generated for it, fields of this type use the proxy.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface Embedded {
+}
@@ -8,7 +8,7 @@ import java.lang.annotation.Target;
 /**
  * Created by Eduardo Ledo <eduardo.ledo@gmail.com> on 03/12/2017.
  */
-@Retention(RetentionPolicy.SOURCE)
+@Retention(RetentionPolicy.CLASS)
 @Target(ElementType.FIELD)
 public @interface Index {
     boolean unique() default false;
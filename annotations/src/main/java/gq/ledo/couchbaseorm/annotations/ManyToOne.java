@@ -0,0 +1,15 @@
+package gq.ledo.couchbaseorm.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field referencing another {@link Document}. Only the id of the referenced document
+ * is stored, the entity is loaded the first time it is accessed.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface ManyToOne {
+}
@@ -0,0 +1,15 @@
+package gq.ledo.couchbaseorm.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link java.util.List} field referencing other {@link Document}s. The list of ids is
+ * stored, the entities are loaded together the first time the list is accessed.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface OneToMany {
+}
@@ -0,0 +1,18 @@
+package gq.ledo.couchbaseorm.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a property as part of the document projection: its value is emitted by every view of
+ * the type, so projections can be built from query rows without loading the documents.
+ * <p>
+ * Projections only hold the id and the projected properties, and have no revision; they are
+ * meant to be read, and the repository refuses to save them.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface Projection {
+}
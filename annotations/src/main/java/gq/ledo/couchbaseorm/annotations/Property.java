@@ -8,10 +8,14 @@ import java.lang.annotation.Target;
 /**
  * Created by Eduardo Ledo <eduardo.ledo@gmail.com> on 14/11/2017.
  */
-@Retention(RetentionPolicy.SOURCE)
+@Retention(RetentionPolicy.CLASS)
 @Target(ElementType.FIELD)
 public @interface Property {
     String value() default "";
     boolean cast() default false;
     String method() default "";
+    /**
+     * Stores enum constants by ordinal instead of by name.
+     */
+    boolean ordinal() default false;
 }
@@ -0,0 +1,79 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.Database;
+import com.couchbase.lite.Query;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncRepositoryTest extends DatabaseTestCase {
+
+    private ExecutorService executor;
+    private RecordingNoteRepository recordingNotes;
+    private AsyncRepository<Note> asyncNotes;
+
+    @Before
+    public void createRepository() {
+        executor = Executors.newSingleThreadExecutor();
+        recordingNotes = new RecordingNoteRepository(database);
+        asyncNotes = new AsyncRepository<>(recordingNotes, executor);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void findByCreatesTheQueryOnTheExecutor() throws Exception {
+        saveNote("first", "ann");
+        saveNote("second", "bob");
+
+        Collection<Note> found = asyncNotes.findBy(Note.AUTHOR, "ann").get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, found.size());
+        assertNotNull(recordingNotes.queryThread);
+        assertTrue(recordingNotes.queryThread != Thread.currentThread());
+    }
+
+    @Test
+    public void findByFailsTheFutureOnNull() throws Exception {
+        try {
+            asyncNotes.findBy(Note.AUTHOR, null).get(10, TimeUnit.SECONDS);
+            fail("A null value should be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    /**
+     * Records the thread creating the queries.
+     */
+    static class RecordingNoteRepository extends NoteRepository {
+
+        volatile Thread queryThread;
+
+        RecordingNoteRepository(Database database) {
+            super(database);
+        }
+
+        @Override
+        protected Query createQuery(Map<String, Object> keyValueMap) {
+            queryThread = Thread.currentThread();
+            return super.createQuery(keyValueMap);
+        }
+    }
+}
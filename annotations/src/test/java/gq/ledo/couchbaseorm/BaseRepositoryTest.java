@@ -0,0 +1,213 @@
+package gq.ledo.couchbaseorm;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BaseRepositoryTest extends DatabaseTestCase {
+
+    @Test
+    public void findByIndexMatchesTheKeyOnly() {
+        saveNote("first", "ann");
+        saveNote("second", "ann");
+        saveNote("third", "bob");
+
+        assertEquals("second", notes.findOneByTitle("second").getTitle());
+        assertEquals(2, notes.findBy(Note.AUTHOR, "ann").size());
+        assertEquals(1, notes.countBy(Note.AUTHOR, "bob"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findOneByIndexRejectsNull() {
+        saveNote("first", "ann");
+
+        notes.findOneByTitle(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findByRejectsNull() {
+        saveNote("first", "ann");
+
+        notes.findBy(Note.AUTHOR, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void countByRejectsNullInMultipleFieldKey() {
+        saveNote("first", "ann");
+        Map<String, Object> filter = new HashMap<>();
+        filter.put(Note.TITLE, "first");
+        filter.put(Note.AUTHOR, null);
+
+        notes.countBy(filter);
+    }
+
+    @Test
+    public void saveAssignsIdAndRevisionInPlace() {
+        Note note = new Note("first", "ann");
+
+        assertSame(note, notes.save(note));
+        assertNotNull(note.getId());
+        assertEquals(database.getDocument(note.getId()).getCurrentRevisionId(), note.getRevisionId());
+    }
+
+    @Test(expected = ConflictException.class)
+    public void saveRejectsAnOutdatedRevision() {
+        String id = saveNote("first", "ann").getId();
+        Note loaded = notes.findOneById(id);
+        Note outdated = notes.findOneById(id);
+        loaded.setAuthor("bob");
+        notes.save(loaded);
+
+        outdated.setTitle("changed");
+        notes.save(outdated);
+    }
+
+    @Test
+    public void conflictResolverMergesWithTheStoredVersion() {
+        String id = saveNote("first", "ann").getId();
+        Note loaded = notes.findOneById(id);
+        Note outdated = notes.findOneById(id);
+        loaded.setAuthor("bob");
+        notes.save(loaded);
+        notes.setConflictResolver(new ConflictResolver<Note>() {
+            @Override
+            public Note resolve(Note local, Note current) {
+                current.setTitle(local.getTitle());
+                return current;
+            }
+        });
+
+        outdated.setTitle("changed");
+        notes.save(outdated);
+
+        Note stored = notes.findOneById(id);
+        assertEquals("changed", stored.getTitle());
+        assertEquals("bob", stored.getAuthor());
+    }
+
+    @Test
+    public void saveAllReportsConflictsWithoutAbortingTheBatch() {
+        String id = saveNote("first", "ann").getId();
+        Note outdated = notes.findOneById(id);
+        notes.save(notes.findOneById(id));
+        Note added = new Note("second", "ann");
+
+        BatchResult<Note> result = notes.saveAll(Arrays.asList(outdated, added));
+
+        assertFalse(result.isSuccessful());
+        assertEquals(Arrays.asList(outdated), result.getConflicts());
+        assertEquals(Arrays.asList(added), result.getSucceeded());
+        assertNotNull(added.getId());
+        assertEquals(2, notes.countAll());
+    }
+
+    @Test
+    public void deleteAllRemovesEveryEntity() {
+        Note first = saveNote("first", "ann");
+        Note second = saveNote("second", "ann");
+        saveNote("third", "bob");
+
+        assertTrue(notes.deleteAll(Arrays.asList(first, second)).isSuccessful());
+        assertNull(notes.findOneById(first.getId()));
+        assertEquals(1, notes.countAll());
+    }
+
+    @Test
+    public void pagesContinueAfterTheLastRow() {
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            expected.add(saveNote("note-" + i, "ann").getId());
+        }
+
+        Set<String> seen = new HashSet<>();
+        int pages = 0;
+        PageRequest request = PageRequest.of(2);
+        while (request != null) {
+            Page<Note> page = notes.findBy(Note.AUTHOR, "ann", request);
+            for (Note note : page) {
+                assertTrue("Returned twice: " + note.getId(), seen.add(note.getId()));
+            }
+            pages++;
+            request = page.nextPageRequest();
+        }
+
+        assertEquals(expected, seen);
+        assertEquals(3, pages);
+    }
+
+    @Test
+    public void cursorUnserializesEveryRowOnce() throws Exception {
+        saveNote("first", "ann");
+        saveNote("second", "ann");
+
+        RepositoryCursor<Note> cursor = notes.iterateAll();
+        Set<String> titles = new HashSet<>();
+        try {
+            assertEquals(2, cursor.getCount());
+            while (cursor.hasNext()) {
+                titles.add(cursor.next().getTitle());
+            }
+        } finally {
+            cursor.close();
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList("first", "second")), titles);
+    }
+
+    @Test
+    public void cacheReturnsTheLoadedEntity() {
+        String id = saveNote("first", "ann").getId();
+        notes.enableCache(10);
+
+        Note loaded = notes.findOneById(id);
+
+        assertSame(loaded, notes.findOneById(id));
+    }
+
+    @Test
+    public void aggregatesEveryEntityWithoutGrouping() {
+        saveNote("first", "ann", 10);
+        saveNote("second", "ann", 30);
+        saveNote("third", "bob", 5);
+        saveNote("untitled", "bob", null);
+
+        Statistics statistics = notes.aggregatePages();
+
+        assertEquals(3, statistics.getCount());
+        assertEquals(45, statistics.getSum(), 0);
+        assertEquals(5, statistics.getMin(), 0);
+        assertEquals(30, statistics.getMax(), 0);
+    }
+
+    @Test
+    public void aggregatesEveryGroup() {
+        saveNote("first", "ann", 10);
+        saveNote("second", "ann", 30);
+        saveNote("third", "bob", 5);
+
+        Map<Object, Statistics> groups = notes.aggregatePagesByAuthor();
+
+        assertEquals(2, groups.size());
+        assertEquals(2, groups.get("ann").getCount());
+        assertEquals(40, groups.get("ann").getSum(), 0);
+        assertEquals(5, groups.get("bob").getMax(), 0);
+    }
+
+    private Note saveNote(String title, String author, Integer pages) {
+        Note note = new Note(title, author);
+        note.setPages(pages);
+
+        return notes.save(note);
+    }
+}
@@ -0,0 +1,136 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.Database;
+import com.couchbase.lite.Status;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BulkImporterTest extends DatabaseTestCase {
+
+    @Test
+    public void importsInChunksAndReportsProgress() {
+        final List<ImportProgress> reported = new ArrayList<>();
+        BulkImporter<Note> importer = new BulkImporter<>(notes)
+                .setChunkSize(10)
+                .setProgressListener(new BulkImporter.ProgressListener() {
+                    @Override
+                    public void onProgress(ImportProgress progress) {
+                        reported.add(progress);
+                    }
+                });
+
+        ImportProgress result = importer.importAll(notes(0, 25));
+
+        assertEquals(3, reported.size());
+        assertEquals(10, reported.get(0).getImported());
+        assertEquals(25, result.getImported());
+        assertTrue(result.isSuccessful());
+        assertEquals(25, notes.countAll());
+        assertEquals(1, notes.countBy(Note.TITLE, "note-7"));
+    }
+
+    @Test
+    public void reportsFailuresById() {
+        Note existing = saveNote("existing", "ann");
+        Note outdated = new Note("outdated", "bob");
+        outdated.setId(existing.getId());
+
+        ImportProgress result = new BulkImporter<>(notes)
+                .importAll(Arrays.asList(new Note("first", "ann"), outdated, new Note("second", "ann")));
+
+        assertEquals(2, result.getImported());
+        assertEquals(1, result.getFailed());
+        assertNotNull(result.getFailures().get(existing.getId()));
+        assertEquals(Status.CONFLICT, result.getFailures().get(existing.getId()).getCBLStatus().getCode());
+        assertEquals("ann", notes.findOneById(existing.getId()).getAuthor());
+    }
+
+    @Test
+    public void rejectsDuplicatesWithinAChunk() {
+        UniqueNoteRepository uniqueNotes = new UniqueNoteRepository(database);
+        List<Note> imported = new ArrayList<>();
+        imported.add(new Note("first", "ann"));
+        imported.add(new Note("second", "ann"));
+        imported.add(new Note("third", "ann"));
+        imported.add(new Note("third", "bob"));
+
+        try {
+            new BulkImporter<>(uniqueNotes).setChunkSize(2).importAll(imported);
+            fail("The duplicate title should be rejected");
+        } catch (UniqueConstraintViolation e) {
+            assertEquals(NoteRepository.INDEX_TITLE, e.getIndex());
+        }
+        // The first chunk was committed, the second one rolled back
+        assertEquals(2, uniqueNotes.countAll());
+    }
+
+    @Test
+    public void rejectsDuplicatesOfStoredDocuments() {
+        UniqueNoteRepository uniqueNotes = new UniqueNoteRepository(database);
+        Note existing = uniqueNotes.save(new Note("first", "ann"));
+
+        try {
+            new BulkImporter<>(uniqueNotes).importAll(Arrays.asList(new Note("other", "ann"), new Note("first", "bob")));
+            fail("The duplicate title should be rejected");
+        } catch (UniqueConstraintViolation e) {
+            assertEquals(existing.getId(), e.getExistingId());
+        }
+        assertEquals(1, uniqueNotes.countAll());
+    }
+
+    @Test
+    public void upsertOverwritesExistingDocuments() {
+        new BulkImporter<>(notes).importAll(identifiedNotes("ann"));
+
+        ImportProgress result = new BulkImporter<>(notes)
+                .setChunkSize(2)
+                .setUpsert(true)
+                .importAll(identifiedNotes("bob"));
+
+        assertTrue(result.isSuccessful());
+        assertEquals(3, result.getImported());
+        assertEquals(3, notes.countAll());
+        for (Note note : identifiedNotes("bob")) {
+            assertEquals("bob", notes.findOneById(note.getId()).getAuthor());
+        }
+    }
+
+    private static List<Note> identifiedNotes(String author) {
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Note note = new Note("note-" + i, author);
+            note.setId("imported-" + i);
+            notes.add(note);
+        }
+        return notes;
+    }
+
+    private static List<Note> notes(int from, int count) {
+        List<Note> notes = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            notes.add(new Note("note-" + i, "author-" + i % 3));
+        }
+        return notes;
+    }
+
+    static class UniqueNoteRepository extends NoteRepository {
+
+        UniqueNoteRepository(Database database) {
+            super(database);
+        }
+
+        @Override
+        protected IndexDefinition[] getUniqueIndexes() {
+            return new IndexDefinition[]{INDEX_TITLE};
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.Database;
+import com.couchbase.lite.JavaContext;
+import com.couchbase.lite.Manager;
+import com.google.common.io.Files;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+
+/**
+ * Opens an empty local database in a temporary directory for every test.
+ */
+public abstract class DatabaseTestCase {
+
+    protected File directory;
+    protected Manager manager;
+    protected Database database;
+    protected NoteRepository notes;
+
+    @Before
+    public void openDatabase() throws Exception {
+        directory = Files.createTempDir();
+        manager = new Manager(new JavaContext() {
+            @Override
+            public File getFilesDir() {
+                return directory;
+            }
+        }, Manager.DEFAULT_OPTIONS);
+        database = manager.getDatabase("test");
+        notes = new NoteRepository(database);
+    }
+
+    @After
+    public void deleteDatabase() throws Exception {
+        database.delete();
+        manager.close();
+        delete(directory);
+    }
+
+    protected Note saveNote(String title, String author) {
+        return notes.save(new Note(title, author));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,87 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.Database;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DerivedIdTest extends DatabaseTestCase {
+
+    private KeyedNoteRepository keyedNotes;
+
+    @Before
+    public void createRepository() {
+        keyedNotes = new KeyedNoteRepository(database);
+    }
+
+    @Test
+    public void saveDerivesTheId() {
+        Note note = keyedNotes.save(new Note("first", "ann"));
+
+        assertEquals(KeyedNoteRepository.idFor("first"), note.getId());
+        assertEquals("ann", keyedNotes.findOneById(KeyedNoteRepository.idFor("first")).getAuthor());
+    }
+
+    @Test
+    public void conflictOnDerivedIdReportsTheId() {
+        keyedNotes.save(new Note("first", "ann"));
+        Note duplicate = new Note("first", "bob");
+
+        try {
+            keyedNotes.save(duplicate);
+            fail("The second save should conflict");
+        } catch (ConflictException e) {
+            assertEquals(KeyedNoteRepository.idFor("first"), e.getEntity().getId());
+            assertTrue(e.getMessage(), e.getMessage().contains(KeyedNoteRepository.idFor("first")));
+        }
+    }
+
+    @Test
+    public void conflictOnDerivedIdIsResolved() {
+        keyedNotes.save(new Note("first", "ann"));
+        keyedNotes.setConflictResolver(new ConflictResolver<Note>() {
+            @Override
+            public Note resolve(Note local, Note current) {
+                current.setAuthor(current.getAuthor() + "," + local.getAuthor());
+                return current;
+            }
+        });
+
+        Note saved = keyedNotes.save(new Note("first", "bob"));
+
+        assertEquals(KeyedNoteRepository.idFor("first"), saved.getId());
+        assertEquals("ann,bob", keyedNotes.findOneById(saved.getId()).getAuthor());
+    }
+
+    @Test
+    public void upsertOverwritesTheDerivedDocument() {
+        keyedNotes.save(new Note("first", "ann"));
+
+        keyedNotes.upsert(new Note("first", "bob"));
+
+        assertEquals("bob", keyedNotes.findOneById(KeyedNoteRepository.idFor("first")).getAuthor());
+    }
+
+    /**
+     * Derives the id from the title, as generated for {@code idFrom = {"title"}}.
+     */
+    static class KeyedNoteRepository extends NoteRepository {
+
+        KeyedNoteRepository(Database database) {
+            super(database);
+        }
+
+        static String idFor(String title) {
+            return buildId("Test.Note", title);
+        }
+
+        @Override
+        protected String deriveId(Note note) {
+            return idFor(note.getTitle());
+        }
+    }
+}
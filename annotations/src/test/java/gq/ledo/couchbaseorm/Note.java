@@ -0,0 +1,69 @@
+package gq.ledo.couchbaseorm;
+
+/**
+ * Entity of the tests, written the way the processor generates proxies.
+ */
+public class Note implements CouchDocument {
+
+    public static final String TITLE = "title";
+    public static final String AUTHOR = "author";
+    public static final String PAGES = "pages";
+
+    private String id;
+    private String revisionId;
+    private String title;
+    private String author;
+    private Integer pages;
+
+    public Note() {
+    }
+
+    public Note(String title, String author) {
+        this.title = title;
+        this.author = author;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    @Override
+    public String getRevisionId() {
+        return revisionId;
+    }
+
+    @Override
+    public void setRevisionId(String revisionId) {
+        this.revisionId = revisionId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public void setAuthor(String author) {
+        this.author = author;
+    }
+
+    public Integer getPages() {
+        return pages;
+    }
+
+    public void setPages(Integer pages) {
+        this.pages = pages;
+    }
+}
@@ -0,0 +1,75 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.CouchbaseLiteException;
+import com.couchbase.lite.Database;
+import com.couchbase.lite.SavedRevision;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Repository of the tests, written the way the processor generates them.
+ */
+public class NoteRepository extends BaseRepository<Note> {
+
+    public static final IndexDefinition INDEX_TITLE = IndexDefinition.of(Note.TITLE);
+
+    public static final AggregateDefinition AGGREGATE_PAGES = AggregateDefinition.of(Note.PAGES);
+
+    public static final AggregateDefinition AGGREGATE_PAGES_BY_AUTHOR = AggregateDefinition.of(Note.PAGES, Note.AUTHOR);
+
+    private static final AggregateDefinition[] AGGREGATES = new AggregateDefinition[]{AGGREGATE_PAGES, AGGREGATE_PAGES_BY_AUTHOR};
+
+    public NoteRepository(Database database) {
+        super(database);
+    }
+
+    @Override
+    protected String getType() {
+        return "Test.Note";
+    }
+
+    @Override
+    protected Note unserialize(Map<String, Object> properties) {
+        Note note = new Note();
+        note.setRevisionId((String) properties.get(REVISION_FIELD));
+        note.setId((String) properties.get(ID_FIELD));
+        note.setTitle(PropertyConverter.toStringOrNull(properties.get(Note.TITLE)));
+        note.setAuthor(PropertyConverter.toStringOrNull(properties.get(Note.AUTHOR)));
+        note.setPages(PropertyConverter.toIntOrNull(properties.get(Note.PAGES)));
+        return note;
+    }
+
+    @Override
+    protected Map<String, Object> serializeProperties(Note note) {
+        HashMap<String, Object> properties = new HashMap<String, Object>();
+        properties.put(REVISION_FIELD, note.getRevisionId());
+        properties.put(TYPE_FIELD, getType());
+        properties.put(Note.TITLE, note.getTitle());
+        properties.put(Note.AUTHOR, note.getAuthor());
+        properties.put(Note.PAGES, note.getPages());
+        return properties;
+    }
+
+    @Override
+    protected SavedRevision serialize(Note note) throws CouchbaseLiteException {
+        return getDocument(note).putProperties(serializeProperties(note));
+    }
+
+    public Note findOneByTitle(String title) {
+        return findOneByIndex(INDEX_TITLE, title);
+    }
+
+    public Statistics aggregatePages() {
+        return aggregate(AGGREGATE_PAGES);
+    }
+
+    public Map<Object, Statistics> aggregatePagesByAuthor() {
+        return aggregateGrouped(AGGREGATE_PAGES_BY_AUTHOR);
+    }
+
+    @Override
+    protected AggregateDefinition[] getAggregates() {
+        return AGGREGATES;
+    }
+}
@@ -0,0 +1,108 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.Database;
+import com.couchbase.lite.QueryRow;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProjectionTest extends DatabaseTestCase {
+
+    private ProjectedNoteRepository projectedNotes;
+
+    @Before
+    public void createRepository() {
+        projectedNotes = new ProjectedNoteRepository(database);
+    }
+
+    @Test
+    public void projectionsOnlyHoldTheProjectedProperties() {
+        projectedNotes.save(new Note("first", "ann"));
+
+        Note projection = projectedNotes.findAllProjections().iterator().next();
+
+        assertEquals("first", projection.getTitle());
+        assertNull(projection.getAuthor());
+        assertTrue(projectedNotes.isProjection(projection));
+    }
+
+    @Test
+    public void saveRefusesProjections() {
+        Note note = projectedNotes.save(new Note("first", "ann"));
+        Note projection = projectedNotes.findProjectionsBy(Note.TITLE, "first").iterator().next();
+        projection.setTitle("changed");
+
+        try {
+            projectedNotes.save(projection);
+            fail("Saving a projection should be refused");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Projections can't be saved: " + note.getId(), e.getMessage());
+        }
+        Note stored = projectedNotes.findOneById(note.getId());
+        assertEquals("first", stored.getTitle());
+        assertEquals("ann", stored.getAuthor());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void saveAllRefusesProjections() {
+        projectedNotes.save(new Note("first", "ann"));
+        Note projection = projectedNotes.findAllProjections().iterator().next();
+
+        projectedNotes.saveAll(Arrays.asList(new Note("second", "bob"), projection));
+    }
+
+    @Test
+    public void loadedEntitiesCanBeSaved() {
+        Note note = projectedNotes.save(new Note("first", "ann"));
+        Note loaded = projectedNotes.findOneById(note.getId());
+        loaded.setAuthor("bob");
+
+        assertFalse(projectedNotes.isProjection(loaded));
+        projectedNotes.save(loaded);
+        assertEquals("bob", projectedNotes.findOneById(note.getId()).getAuthor());
+    }
+
+    /**
+     * Projects the title, the way the processor generates it for a {@code @Projection} field.
+     * Views are registered once per database and type, so it uses its own type.
+     */
+    static class ProjectedNoteRepository extends NoteRepository {
+
+        private static final String[] PROJECTION = new String[]{Note.TITLE};
+
+        ProjectedNoteRepository(Database database) {
+            super(database);
+        }
+
+        @Override
+        protected String getType() {
+            return "Test.ProjectedNote";
+        }
+
+        @Override
+        protected String[] getProjection() {
+            return PROJECTION;
+        }
+
+        @Override
+        protected Note unserializeRow(QueryRow row) {
+            List<?> values = (List<?>) row.getValue();
+            if (values == null) {
+                return unserialize(row);
+            }
+            Note note = new Note();
+            note.setId(row.getDocumentId());
+            note.setTitle(PropertyConverter.toStringOrNull(values.get(0)));
+            return note;
+        }
+    }
+}
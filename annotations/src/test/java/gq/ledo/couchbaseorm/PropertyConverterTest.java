@@ -0,0 +1,32 @@
+package gq.ledo.couchbaseorm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PropertyConverterTest {
+
+    @Test
+    public void toCharReadsTheFirstCharacter() {
+        assertEquals('a', PropertyConverter.toChar("abc"));
+        assertEquals(Character.valueOf('a'), PropertyConverter.toCharOrNull("a"));
+    }
+
+    @Test
+    public void toCharDefaultsOnMissingOrEmptyValues() {
+        assertEquals('\0', PropertyConverter.toChar(null));
+        assertEquals('\0', PropertyConverter.toChar(""));
+        assertNull(PropertyConverter.toCharOrNull(null));
+        assertNull(PropertyConverter.toCharOrNull(""));
+    }
+
+    @Test
+    public void numbersAreConvertedWhateverTheirStoredType() {
+        assertEquals(3, PropertyConverter.toInt(3L));
+        assertEquals(3L, PropertyConverter.toLong(3));
+        assertEquals(2.0, PropertyConverter.toDouble(2), 0);
+        assertEquals(0, PropertyConverter.toInt(null));
+        assertNull(PropertyConverter.toIntOrNull(null));
+    }
+}
@@ -0,0 +1,111 @@
+package gq.ledo.couchbaseorm;
+
+import com.couchbase.lite.Document;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReferenceListTest extends DatabaseTestCase {
+
+    @Test
+    public void getLeavesOutMissingDocuments() {
+        Note first = saveNote("first", "ann");
+        Note second = saveNote("second", "bob");
+        ReferenceList<Note> references = new ReferenceList<>(Arrays.asList(first.getId(), "missing", second.getId()), notes);
+
+        List<Note> resolved = references.get();
+
+        assertEquals(2, resolved.size());
+        assertEquals("first", resolved.get(0).getTitle());
+        assertEquals("second", resolved.get(1).getTitle());
+    }
+
+    @Test
+    public void getIdsKeepsUnresolvedIds() {
+        Note first = saveNote("first", "ann");
+        ReferenceList<Note> references = new ReferenceList<>(Arrays.asList("missing", first.getId()), notes);
+
+        references.get();
+
+        assertEquals(Arrays.asList("missing", first.getId()), references.getIds());
+    }
+
+    @Test
+    public void getIdsAppendsAddedEntities() {
+        Note first = saveNote("first", "ann");
+        Note added = saveNote("added", "bob");
+        ReferenceList<Note> references = new ReferenceList<>(Arrays.asList("missing", first.getId()), notes);
+
+        references.get().add(added);
+
+        assertEquals(Arrays.asList("missing", first.getId(), added.getId()), references.getIds());
+    }
+
+    @Test
+    public void resolveAllKeepsUnresolvedIds() {
+        Note first = saveNote("first", "ann");
+        ReferenceList<Note> references = new ReferenceList<>(Arrays.asList(first.getId(), "missing"), notes);
+
+        ReferenceList.resolveAll(Arrays.asList(references), notes);
+
+        assertEquals(1, references.get().size());
+        assertEquals(Arrays.asList(first.getId(), "missing"), references.getIds());
+    }
+
+    @Test
+    public void getIdsOfEntitiesReadsTheirCurrentIds() {
+        Note note = new Note("unsaved", "ann");
+        ReferenceList<Note> references = ReferenceList.to(Arrays.asList(note));
+        notes.save(note);
+
+        assertEquals(Arrays.asList(note.getId()), references.getIds());
+    }
+
+    @Test
+    public void getIdsDropsRemovedEntities() {
+        Note first = saveNote("first", "ann");
+        Note second = saveNote("second", "bob");
+        ReferenceList<Note> references = new ReferenceList<>(Arrays.asList(first.getId(), "missing", second.getId()), notes);
+
+        references.get().remove(0);
+
+        assertEquals(Arrays.asList("missing", second.getId()), references.getIds());
+    }
+
+    @Test
+    public void removedReferencesAreNotSavedBack() throws Exception {
+        Note first = saveNote("first", "ann");
+        Note second = saveNote("second", "bob");
+        Document owner = database.createDocument();
+        saveReferences(owner, Arrays.asList(first.getId(), second.getId()));
+
+        ReferenceList<Note> loaded = loadReferences(owner);
+        loaded.get().remove(0);
+        saveReferences(owner, loaded.getIds());
+        ReferenceList<Note> reloaded = loadReferences(owner);
+
+        assertEquals(Arrays.asList(second.getId()), reloaded.getIds());
+        assertEquals(1, reloaded.get().size());
+        assertEquals("second", reloaded.get().get(0).getTitle());
+    }
+
+    private void saveReferences(Document owner, List<String> ids) throws Exception {
+        Map<String, Object> properties = new HashMap<>(owner.getProperties() == null
+                ? new HashMap<String, Object>() : owner.getProperties());
+        properties.put("notes", ids);
+        owner.putProperties(properties);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ReferenceList<Note> loadReferences(Document owner) {
+        Document stored = database.getExistingDocument(owner.getId());
+
+        return new ReferenceList<>((List<String>) stored.getProperty("notes"), notes);
+    }
+}
@@ -0,0 +1,134 @@
+package gq.ledo.couchbaseorm.benchmarks;
+
+import com.couchbase.lite.CouchbaseLiteException;
+import com.couchbase.lite.Database;
+import com.couchbase.lite.JavaContext;
+import com.couchbase.lite.Manager;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import gq.ledo.couchbaseorm.BulkImporter;
+import gq.ledo.couchbaseorm.DBHelper;
+import gq.ledo.couchbaseorm.benchmarks.model.proxy.Person;
+import gq.ledo.couchbaseorm.benchmarks.model.proxy.PersonRepository;
+
+/**
+ * A local Couchbase Lite database in a temporary directory, deleted on {@link #close()}.
+ * <p>
+ * Synthetic persons are deterministic: person {@code i} has the id {@link #idOf(int)}, lives
+ * in one of {@link #CITIES} cities and shares its nickname with the persons of that city.
+ */
+public class BenchmarkDatabase {
+
+    public static final int CITIES = 100;
+
+    private final File directory;
+    private final Manager manager;
+    private final Database database;
+    private final DBHelper dbHelper;
+
+    public BenchmarkDatabase() throws IOException, CouchbaseLiteException {
+        directory = Files.createTempDir();
+        manager = new Manager(new JavaContext() {
+            @Override
+            public File getFilesDir() {
+                return directory;
+            }
+        }, Manager.DEFAULT_OPTIONS);
+        database = manager.getDatabase("benchmarks");
+        dbHelper = DBHelper.create(database);
+    }
+
+    public Database getDatabase() {
+        return database;
+    }
+
+    public PersonRepository getPersonRepository() {
+        return dbHelper.getPersonRepository();
+    }
+
+    /**
+     * Imports persons {@code 0} to {@code size - 1} and builds the indexes.
+     */
+    public void seed(int size) {
+        new BulkImporter<>(getPersonRepository())
+                .setChunkSize(1000)
+                .importAll(persons(0, size));
+    }
+
+    public void close() throws CouchbaseLiteException {
+        database.delete();
+        manager.close();
+        delete(directory);
+    }
+
+    public static String idOf(int i) {
+        return "person-" + i;
+    }
+
+    public static String city(int i) {
+        return "city-" + (i % CITIES);
+    }
+
+    public static String nickname(int i) {
+        return "nickname-" + (i % CITIES);
+    }
+
+    public static Person person(int i) {
+        Person person = new Person();
+        person.setId(idOf(i));
+        person.setName("Person " + i);
+        person.setCity(city(i));
+        person.setNickname(nickname(i));
+        person.setAge(18 + i % 80);
+        person.setScore(i * 0.5);
+        person.setActive(i % 2 == 0);
+        person.setBorn(new Date(i * 86400000L));
+        person.setTags(Arrays.asList("tag-" + i % 10, "tag-" + i % 7));
+        return person;
+    }
+
+    /**
+     * Generates the persons one at a time, so any number of them can be imported without
+     * holding them in memory.
+     */
+    public static Iterator<Person> persons(final int from, final int count) {
+        return new Iterator<Person>() {
+            private int next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < from + count;
+            }
+
+            @Override
+            public Person next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return person(next++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,37 @@
+package gq.ledo.couchbaseorm.benchmarks;
+
+import gq.ledo.couchbaseorm.BulkImporter;
+import gq.ledo.couchbaseorm.ImportProgress;
+
+/**
+ * Imports synthetic persons (1M by default) into a fresh local database and reports the
+ * throughput. Run with {@code ./gradlew :benchmarks:importHarness -Pcount=1000000}; the heap is
+ * capped, so it also checks the import runs in bounded memory.
+ */
+public class ImportHarness {
+
+    private static final long REPORT_EVERY = 100000;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        BenchmarkDatabase database = new BenchmarkDatabase();
+        try {
+            ImportProgress result = new BulkImporter<>(database.getPersonRepository())
+                    .setProgressListener(new BulkImporter.ProgressListener() {
+                        private long reported;
+
+                        @Override
+                        public void onProgress(ImportProgress progress) {
+                            if (progress.getImported() - reported >= REPORT_EVERY) {
+                                reported = progress.getImported();
+                                System.out.println(progress);
+                            }
+                        }
+                    })
+                    .importAll(BenchmarkDatabase.persons(0, count));
+            System.out.println("Done: " + result);
+        } finally {
+            database.close();
+        }
+    }
+}
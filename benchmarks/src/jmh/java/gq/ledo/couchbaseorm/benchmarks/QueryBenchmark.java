@@ -0,0 +1,88 @@
+package gq.ledo.couchbaseorm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import gq.ledo.couchbaseorm.RepositoryCursor;
+import gq.ledo.couchbaseorm.benchmarks.model.proxy.Person;
+import gq.ledo.couchbaseorm.benchmarks.model.proxy.PersonRepository;
+
+/**
+ * Read paths of a repository holding {@code size} documents. Lookups by city and by nickname
+ * match {@code size / 100} entities: the city through its {@code @Index} view, the nickname by
+ * scanning the type view and filtering the entities, as done without any index.
+ * <p>
+ * The nickname is not looked up with {@code findBy}, since that builds a persistent index for
+ * the property on first use and would then measure the same path as the indexed finder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueryBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private final Random random = new Random(42);
+    private BenchmarkDatabase database;
+    private PersonRepository repository;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        database = new BenchmarkDatabase();
+        database.seed(size);
+        repository = database.getPersonRepository();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Benchmark
+    public Person findOneById() {
+        return repository.findOneById(BenchmarkDatabase.idOf(random.nextInt(size)));
+    }
+
+    @Benchmark
+    public Collection<Person> findAll() {
+        return repository.findAll();
+    }
+
+    @Benchmark
+    public Collection<Person> findByIndexedField() {
+        return repository.findByCity(BenchmarkDatabase.city(random.nextInt(BenchmarkDatabase.CITIES)));
+    }
+
+    @Benchmark
+    public Collection<Person> scanNonIndexedField() {
+        String nickname = BenchmarkDatabase.nickname(random.nextInt(BenchmarkDatabase.CITIES));
+        List<Person> persons = new ArrayList<>();
+        RepositoryCursor<Person> cursor = repository.iterateAll();
+        try {
+            while (cursor.hasNext()) {
+                Person person = cursor.next();
+                if (nickname.equals(person.getNickname())) {
+                    persons.add(person);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return persons;
+    }
+}
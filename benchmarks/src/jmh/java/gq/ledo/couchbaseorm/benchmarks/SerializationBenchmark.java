@@ -0,0 +1,75 @@
+package gq.ledo.couchbaseorm.benchmarks;
+
+import com.couchbase.lite.Database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import gq.ledo.couchbaseorm.benchmarks.model.proxy.Person;
+import gq.ledo.couchbaseorm.benchmarks.model.proxy.PersonRepository;
+
+/**
+ * The generated conversions between an entity and its document properties, without any
+ * database access. Properties are read back from a stored document, as the repository does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SerializationBenchmark {
+
+    private BenchmarkDatabase database;
+    private PersonSerializer serializer;
+    private Person person;
+    private Map<String, Object> properties;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        database = new BenchmarkDatabase();
+        serializer = new PersonSerializer(database.getDatabase());
+        person = serializer.save(BenchmarkDatabase.person(0));
+        properties = database.getDatabase().getDocument(person.getId()).getProperties();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Benchmark
+    public Map<String, Object> serialize() {
+        return serializer.toProperties(person);
+    }
+
+    @Benchmark
+    public Person unserialize() {
+        return serializer.fromProperties(properties);
+    }
+
+    /**
+     * Exposes the generated (protected) conversions.
+     */
+    static class PersonSerializer extends PersonRepository {
+
+        PersonSerializer(Database database) {
+            super(database);
+        }
+
+        Map<String, Object> toProperties(Person person) {
+            return serializeProperties(person);
+        }
+
+        Person fromProperties(Map<String, Object> properties) {
+            return unserialize(properties);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package gq.ledo.couchbaseorm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import gq.ledo.couchbaseorm.BatchResult;
+import gq.ledo.couchbaseorm.BulkImporter;
+import gq.ledo.couchbaseorm.ImportProgress;
+import gq.ledo.couchbaseorm.benchmarks.model.proxy.Person;
+import gq.ledo.couchbaseorm.benchmarks.model.proxy.PersonRepository;
+
+/**
+ * Inserts new documents into a repository already holding {@code size} of them. Scores are
+ * per document, so single saves, {@code saveAll} and the {@link BulkImporter} compare directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WriteBenchmark {
+
+    private static final int BATCH = 500;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private BenchmarkDatabase database;
+    private PersonRepository repository;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        database = new BenchmarkDatabase();
+        database.seed(size);
+        repository = database.getPersonRepository();
+        next = size;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Benchmark
+    public Person save() {
+        return repository.save(BenchmarkDatabase.person(next++));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public BatchResult<Person> saveAll() {
+        List<Person> persons = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            persons.add(BenchmarkDatabase.person(next++));
+        }
+        return repository.saveAll(persons);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public ImportProgress bulkImport() {
+        ImportProgress progress = new BulkImporter<>(repository)
+                .setChunkSize(BATCH)
+                .setUpdateIndexes(false)
+                .importAll(BenchmarkDatabase.persons(next, BATCH));
+        next += BATCH;
+        return progress;
+    }
+}
@@ -0,0 +1,25 @@
+package gq.ledo.couchbaseorm.benchmarks.model;
+
+import java.util.Date;
+import java.util.List;
+
+import gq.ledo.couchbaseorm.annotations.Document;
+import gq.ledo.couchbaseorm.annotations.Index;
+
+/**
+ * Entity used by the benchmarks: {@code city} has an {@code @Index}, {@code nickname} has none
+ * and is only read by scanning the type view.
+ */
+@Document(type = "Benchmark.Person")
+public class Person {
+    private String id;
+    private String name;
+    @Index
+    private String city;
+    private String nickname;
+    private int age;
+    private double score;
+    private boolean active;
+    private Date born;
+    private List<String> tags;
+}
@@ -2,10 +2,16 @@ package gq.ledo.android.processor;
 
 import com.couchbase.lite.CouchbaseLiteException;
 import com.couchbase.lite.Database;
+import com.couchbase.lite.QueryRow;
+import com.couchbase.lite.SavedRevision;
+import com.couchbase.lite.View;
 import com.google.common.base.CaseFormat;
 import com.google.common.base.Joiner;
-import com.google.common.collect.HashMultiset;
-import com.google.common.collect.Ordering;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.FieldSpec;
@@ -18,14 +24,20 @@ import com.squareup.javapoet.TypeSpec;
 import com.squareup.javapoet.TypeVariableName;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.Filer;
@@ -38,13 +50,36 @@ import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
 
+import gq.ledo.couchbaseorm.AggregateDefinition;
+import gq.ledo.couchbaseorm.AsyncRepository;
 import gq.ledo.couchbaseorm.BaseRepository;
+import gq.ledo.couchbaseorm.Codec;
+import gq.ledo.couchbaseorm.Codecs;
 import gq.ledo.couchbaseorm.CouchDocument;
+import gq.ledo.couchbaseorm.IndexDefinition;
+import gq.ledo.couchbaseorm.Page;
+import gq.ledo.couchbaseorm.PageRequest;
+import gq.ledo.couchbaseorm.PropertyConverter;
+import gq.ledo.couchbaseorm.Reference;
+import gq.ledo.couchbaseorm.ReferenceList;
+import gq.ledo.couchbaseorm.RepositoryObserver;
+import gq.ledo.couchbaseorm.ResultChangeListener;
+import gq.ledo.couchbaseorm.Statistics;
+import gq.ledo.couchbaseorm.ViewRegistry;
+import gq.ledo.couchbaseorm.annotations.Aggregate;
 import gq.ledo.couchbaseorm.annotations.Document;
+import gq.ledo.couchbaseorm.annotations.Embedded;
 import gq.ledo.couchbaseorm.annotations.Index;
+import gq.ledo.couchbaseorm.annotations.ManyToOne;
+import gq.ledo.couchbaseorm.annotations.OneToMany;
+import gq.ledo.couchbaseorm.annotations.Projection;
 import gq.ledo.couchbaseorm.annotations.Property;
 
 @SupportedSourceVersion(SourceVersion.RELEASE_7)
@@ -53,18 +88,72 @@ public class DocumentProcessor extends AbstractProcessor {
     private Messager messager;
     private Filer filer;
     private Elements elementUtils;
+    private Types typeUtils;
     private static final String PACKAGE_SUFFIX = ".proxy";
     private static final String REPO_SUFFIX = "Repository";
-    private HashMap<String, String[]> primitives = new HashMap<String, String[]>() {{
-        put("byte", new String[]{"Byte", "byteValue()"});
-        put("short", new String[]{"Short", "shortValue()"});
-        put("int", new String[]{"Integer", "intValue()"});
-        put("long", new String[]{"Long", "longValue()"});
-        put("float", new String[]{"Float", "floatValue()"});
-        put("double", new String[]{"Double", "doubleValue()"});
-        put("char", new String[]{"Character", "charValue()"});
-        put("java.lang.String", new String[]{"java.lang.String", "toString()"});
-    }};
+    private static final String ASYNC_REPO_SUFFIX = "AsyncRepository";
+    private static final String CODEC_SUFFIX = "Codec";
+    private static final String DB_HELPER_PACKAGE = "gq.ledo.couchbaseorm";
+    private static final String DB_HELPER_NAME = "DBHelper";
+    private static final String INDEX_REGISTRY_NAME = "IndexRegistry";
+    private static final String PROJECTION_JAVADOC = "Returns projections built from the index rows alone: only the id and the projected\n"
+            + "properties are set, so they are refused by {@code save}.\n";
+    /**
+     * Types stored as-is, along with the {@link PropertyConverter} method reading them back.
+     */
+    private static final Map<String, String> primitives = ImmutableMap.<String, String>builder()
+            .put("byte", "toByte")
+            .put("short", "toShort")
+            .put("int", "toInt")
+            .put("long", "toLong")
+            .put("float", "toFloat")
+            .put("double", "toDouble")
+            .put("char", "toChar")
+            .put("boolean", "toBoolean")
+            .put("java.lang.Byte", "toByteOrNull")
+            .put("java.lang.Short", "toShortOrNull")
+            .put("java.lang.Integer", "toIntOrNull")
+            .put("java.lang.Long", "toLongOrNull")
+            .put("java.lang.Float", "toFloatOrNull")
+            .put("java.lang.Double", "toDoubleOrNull")
+            .put("java.lang.Character", "toCharOrNull")
+            .put("java.lang.Boolean", "toBooleanOrNull")
+            .put("java.lang.String", "toStringOrNull")
+            .build();
+    /**
+     * {@link Codecs} constants for the types stored as-is when nested in collections.
+     */
+    private static final Map<String, String> codecs = ImmutableMap.<String, String>builder()
+            .put("java.lang.Byte", "BYTE")
+            .put("java.lang.Short", "SHORT")
+            .put("java.lang.Integer", "INTEGER")
+            .put("java.lang.Long", "LONG")
+            .put("java.lang.Float", "FLOAT")
+            .put("java.lang.Double", "DOUBLE")
+            .put("java.lang.Character", "CHARACTER")
+            .put("java.lang.Boolean", "BOOLEAN")
+            .put("java.lang.String", "STRING")
+            .put("java.util.Date", "DATE")
+            .build();
+
+    /**
+     * Signatures of the members added to each builder, so duplicates are detected without
+     * rebuilding the type.
+     */
+    private final Map<TypeSpec.Builder, Set<String>> members = new IdentityHashMap<>();
+    /**
+     * Repositories generated so far, across rounds, along with the document they map.
+     */
+    private final Map<ClassName, TypeElement> repositories = new TreeMap<>(new Comparator<ClassName>() {
+        @Override
+        public int compare(ClassName o1, ClassName o2) {
+            return ComparisonChain.start()
+                    .compare(o1.simpleName(), o2.simpleName())
+                    .compare(o1.toString(), o2.toString())
+                    .result();
+        }
+    });
+    private boolean dbHelperWritten;
 
     @Override
     public synchronized void init(ProcessingEnvironment processingEnv) {
@@ -72,24 +161,25 @@ public class DocumentProcessor extends AbstractProcessor {
         messager = processingEnv.getMessager();
         filer = processingEnv.getFiler();
         elementUtils = processingEnv.getElementUtils();
+        typeUtils = processingEnv.getTypeUtils();
     }
 
     @Override
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<? extends Element> documents = roundEnv.getElementsAnnotatedWith(Document.class);
 
-        TreeMap<TypeSpec, String> helpers = new TreeMap<>(new Comparator<TypeSpec>() {
-            @Override
-            public int compare(TypeSpec o1, TypeSpec o2) {
-                return Ordering.natural().compare(o1.name, o2.name);
+        for (Element element : roundEnv.getElementsAnnotatedWith(Embedded.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Can only be applied to class.", element);
+                return true;
             }
-        });
-
-        TypeSpec.Builder dbHelperBuilder = TypeSpec.classBuilder("DBHelper")
-                .addModifiers(Modifier.PUBLIC);
-        String repoPackageName = "gq.ledo.couchbaseorm";
+            buildEmbedded((TypeElement) element);
+        }
 
-        for (Element element : roundEnv.getElementsAnnotatedWith(Document.class)) {
+        for (Element element : documents) {
             Set<Element> indexes = new HashSet<>();
+            List<Element> projected = new ArrayList<>();
+            List<Element> aggregates = new ArrayList<>();
             Document annotation = element.getAnnotation(Document.class);
             if (element.getKind() != ElementKind.CLASS) {
                 messager.printMessage(Diagnostic.Kind.ERROR, "Can only be applied to class.", element);
@@ -105,6 +195,8 @@ public class DocumentProcessor extends AbstractProcessor {
             // Create wrapper
             TypeSpec.Builder proxyBuilder = getProxyBuilder(typeElement);
 
+            addRevisionAccessors(proxyBuilder);
+
             // Create repository
             TypeSpec.Builder repoBuilder = getRepoBuilder(typeElement);
 
@@ -113,30 +205,28 @@ public class DocumentProcessor extends AbstractProcessor {
                             typeElement.getSimpleName(),
                             typeVarName,
                             typeElement.getSimpleName()
-                    );
-            CodeBlock.Builder serializeCode = CodeBlock.builder()
-                    .addStatement("$T document = getDocument($L)",
-                            com.couchbase.lite.Document.class,
-                            typeElement.getSimpleName().toString().toLowerCase()
                     )
+                    .addStatement("$L.setRevisionId(($T) properties.get(REVISION_FIELD))",
+                            typeVarName,
+                            String.class
+                    );
+            CodeBlock.Builder serializePropertiesCode = CodeBlock.builder()
                     .addStatement("$T<$T, Object> properties = new $T<$T,Object>()",
                             HashMap.class,
                             String.class,
                             HashMap.class,
                             String.class
                     )
-                    .addStatement("properties.put(REVISION_FIELD, document.getCurrentRevisionId())")
+                    .addStatement("properties.put(REVISION_FIELD, $L.getRevisionId())", typeVarName)
                     .addStatement("properties.put(TYPE_FIELD, getType())");
-            String serializeTryCatch = Joiner.on('\n').join(
-                    "if (document != null) {",
-                    "    try {",
-                    "        document.putProperties(properties);",
-                    "    } catch ($T e) {",
-                    "        e.printStackTrace();",
-                    "    }",
-                    "}",
-                    "");
-
+            CodeBlock.Builder serializeCode = CodeBlock.builder()
+                    .addStatement("$T document = getDocument($L)",
+                            com.couchbase.lite.Document.class,
+                            typeVarName
+                    )
+                    .addStatement("return document.putProperties(serializeProperties($L))",
+                            typeVarName
+                    );
             MethodSpec helperConstructor = generateHelperConstructor();
             MethodSpec getType = generateHelperGetTypeMethod(annotation);
             if (annotation.indexes().length > 0) {
@@ -144,12 +234,19 @@ public class DocumentProcessor extends AbstractProcessor {
             }
             addMethod(repoBuilder, getType);
             addMethod(repoBuilder, helperConstructor);
+            addMethod(repoBuilder, generateHelperRegistryConstructor());
 
             for (Element el : enclosedElements) {
 
                 if (el.getKind() == ElementKind.FIELD) {
                     String fieldname = el.getSimpleName().toString();
-                    TypeName fieldType = getTypeName(el);
+                    TypeName fieldType = getProxyTypeName(el.asType());
+                    if (el.getAnnotation(ManyToOne.class) != null || el.getAnnotation(OneToMany.class) != null) {
+                        if (!buildRelation(proxyBuilder, repoBuilder, typeElement, packageName, el, unserializeCode, serializePropertiesCode)) {
+                            return true;
+                        }
+                        continue;
+                    }
 
                     FieldSpec fieldSpec = FieldSpec.builder(fieldType, fieldname, Modifier.PRIVATE)
                             .build();
@@ -162,204 +259,237 @@ public class DocumentProcessor extends AbstractProcessor {
                     addMethod(proxyBuilder, setter);
 
 
-                    String docFieldName = fieldname;
-                    Property property = el.getAnnotation(Property.class);
-                    if (property != null) {
-                        String value = property.value();
-                        if (value.trim().length() > 0) {
-                            docFieldName = value;
-                        }
-                        if (property.cast()) {
-                            String castMethod = null;
-                            if (property.method().length() > 0) {
-                                castMethod = property.method();
-                            }
-                            primitives.put(fieldType.toString(), new String[]{fieldType.toString(), castMethod});
-                        }
-                    }
+                    String docFieldName = getDocFieldName(el);
                     if (docFieldName.equals(BaseRepository.TYPE_FIELD)) {
                         messager.printMessage(Diagnostic.Kind.ERROR, "The property name 'type' is reserved.", el);
                         return true;
                     }
                     Index index = el.getAnnotation(Index.class);
-                    // TODO: Save unique
-                    // TODO: OneToMany
-                    // TODO: ManyToOne
                     // TODO: ManyToMany
                     if (index != null) {
                         indexes.add(el);
                     }
+                    if (el.getAnnotation(Aggregate.class) != null) {
+                        aggregates.add(el);
+                    }
+                    boolean isId = docFieldName.equals("id") || docFieldName.equals("_id");
+                    if (el.getAnnotation(Projection.class) != null && !isId) {
+                        if (!primitives.containsKey(fieldType.toString())) {
+                            messager.printMessage(Diagnostic.Kind.ERROR, "Only primitive and String properties can be projected.", el);
+                            return true;
+                        }
+                        projected.add(el);
+                    }
                     FieldSpec fieldNameSpec = FieldSpec.builder(String.class, fieldname.toUpperCase())
                             .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
                             .initializer("$S", docFieldName)
                             .build();
                     addField(proxyBuilder, fieldNameSpec);
-                    if (docFieldName.equals("id") || docFieldName.equals("_id")) {
-                        unserializeCode.addStatement("$N.$N(document.getId())",
+                    if (isId) {
+                        unserializeCode.addStatement("$N.$N(($T) properties.get(ID_FIELD))",
                                 typeVarName,
-                                setter
+                                setter,
+                                String.class
                         );
-                    } else if (primitives.containsKey(fieldType.toString())) {
-                        String st = "$N.$N(document.getProperty($L.$L) == null ? null : (($L) document.getProperty($L.$L))$L)";
-                        String[] strings = primitives.get(fieldType.toString());
-                        String method = strings[1] == null ? "" : "." + strings[1];
-                        if (strings != null) {
-                            unserializeCode.addStatement(st,
-                                    typeVarName,
-                                    setter,
-                                    typeVarName,
-                                    fieldname.toUpperCase(),
-                                    strings[0],
-                                    typeVarName,
-                                    fieldname.toUpperCase(),
-                                    method
-                            );
-                            serializeCode.addStatement("properties.put($N.$L, $N.$N())",
-                                    typeVarName,
-                                    fieldname.toUpperCase(),
-                                    typeVarName,
-                                    getter);
-                        }
-//                    } else {
-//                        unserializeCode.addStatement("$N.$N(document.getProperty($S) == null ? null : $L.unserialize(($T) document.getProperty($S)))",
-//                                typeVarName,
-//                                setter,
-//                                docFieldName,
-//                                getProxyFQDN(el),
-//                                com.couchbase.lite.Document.class,
-//                                docFieldName
-//                        );
                     } else {
-                        unserializeCode.addStatement("// $S", fieldType.toString());
+                        addPropertyCode(repoBuilder, typeElement, el, getter, setter, unserializeCode, serializePropertiesCode);
                     }
                 }
             }
             unserializeCode.addStatement("return $L", typeVarName);
-            serializeCode.add(serializeTryCatch, CouchbaseLiteException.class);
-            serializeCode.addStatement("return document");
+            serializePropertiesCode.addStatement("return properties");
 
             MethodSpec unserialize = generateRepoUnserialize(typeElement, packageName, unserializeCode.build());
+            MethodSpec serializeProperties = generateRepoSerializeProperties(typeElement, packageName, serializePropertiesCode.build());
             MethodSpec serialize = generateRepoSerialize(typeElement, packageName, serializeCode.build());
 
             addMethod(repoBuilder, unserialize);
+            addMethod(repoBuilder, serializeProperties);
             addMethod(repoBuilder, serialize);
+            if (!projected.isEmpty()) {
+                buildProjection(repoBuilder, typeElement, packageName, projected);
+            }
 
             TypeSpec proxy = proxyBuilder.build();
             TypeVariableName typeVariable = TypeVariableName.get(proxy.name);
-            buildFinders(repoBuilder, indexes, typeVariable);
+            ClassName repoClass = ClassName.get(packageName + PACKAGE_SUFFIX, typeElement.getSimpleName() + REPO_SUFFIX);
+            TypeSpec.Builder asyncBuilder = getAsyncRepoBuilder(typeElement, repoClass, typeVariable);
+            buildFinders(repoBuilder, asyncBuilder, repoClass, indexes, typeVariable, !projected.isEmpty());
+            if (!buildAggregates(repoBuilder, asyncBuilder, repoClass, typeElement, aggregates)) {
+                return true;
+            }
+            if (annotation.idFrom().length > 0
+                    && !buildIdStrategy(repoBuilder, asyncBuilder, repoClass, typeElement, typeVariable, annotation)) {
+                return true;
+            }
 
             ParameterizedTypeName t = ParameterizedTypeName.get(ClassName.get(BaseRepository.class), typeVariable);
             repoBuilder.superclass(t);
             TypeSpec helper = repoBuilder.build();
 
-            helpers.put(helper, packageName + PACKAGE_SUFFIX);
+            repositories.put(repoClass, typeElement);
             try {
                 writeClassToDisk(packageName + PACKAGE_SUFFIX, proxy);
                 writeClassToDisk(packageName + PACKAGE_SUFFIX, helper);
+                writeClassToDisk(packageName + PACKAGE_SUFFIX, asyncBuilder.addOriginatingElement(typeElement).build());
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
-        buildDBHelper(dbHelperBuilder, helpers);
-        try {
-            writeClassToDisk(repoPackageName, dbHelperBuilder.build());
-        } catch (IOException e) {
-            e.printStackTrace();
+        members.clear();
+
+        // DBHelper aggregates every document: write it once, after the round processing them
+        if (!dbHelperWritten && (documents.isEmpty() || roundEnv.processingOver())) {
+            try {
+                writeClassToDisk(DB_HELPER_PACKAGE, buildDBHelper());
+                writeClassToDisk(DB_HELPER_PACKAGE, buildIndexRegistry());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            dbHelperWritten = true;
         }
 
         return true;
     }
 
     private void addMethod(TypeSpec.Builder builder, MethodSpec method) {
-        if (!hasMethod(builder, method)) {
+        StringBuilder signature = new StringBuilder(method.name).append('(');
+        for (ParameterSpec parameter : method.parameters) {
+            signature.append(parameter.type).append(',');
+        }
+        if (membersOf(builder).add(signature.append(')').toString())) {
             builder.addMethod(method);
         }
     }
 
     private void addField(TypeSpec.Builder builder, FieldSpec field) {
-        if (!hasField(builder, field)) {
+        if (membersOf(builder).add(field.name)) {
             builder.addField(field);
         }
     }
 
-    private boolean hasMethod(TypeSpec.Builder builder, MethodSpec method) {
-        for (MethodSpec m : builder.build().methodSpecs) {
-            if (method.name.equals(m.name) &&
-                    method.parameters.size() == m.parameters.size() &&
-                    HashMultiset.create(method.parameters).equals(HashMultiset.create(m.parameters))
-                    ) {
-                return true;
-            }
+    private Set<String> membersOf(TypeSpec.Builder builder) {
+        Set<String> builderMembers = members.get(builder);
+        if (builderMembers == null) {
+            builderMembers = new HashSet<>();
+            members.put(builder, builderMembers);
         }
-        return false;
-    }
 
-    private boolean hasField(TypeSpec.Builder builder, FieldSpec field) {
-        for (FieldSpec f : builder.build().fieldSpecs) {
-            if (field.name.equals(f.name)) {
-                return true;
-            }
-        }
-        return false;
+        return builderMembers;
     }
 
-    private void buildDBHelper(TypeSpec.Builder dbHelperBuilder, Map<TypeSpec, String> repos) {
-        String repoName = dbHelperBuilder.build().name;
-        MethodSpec.Builder constructorBuilder = MethodSpec.constructorBuilder()
-                .addModifiers(Modifier.PUBLIC);
-
-        TypeVariableName repoType = TypeVariableName.get(repoName);
-        MethodSpec.Builder createBuilder = MethodSpec.methodBuilder("create")
-                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+    /**
+     * Builds the helper giving access to every repository. Repositories are only created the
+     * first time they are requested, sharing the helper's {@link ViewRegistry}.
+     */
+    private TypeSpec buildDBHelper() {
+        TypeSpec.Builder dbHelperBuilder = TypeSpec.classBuilder(DB_HELPER_NAME)
+                .addModifiers(Modifier.PUBLIC)
+                .addField(Database.class, "database", Modifier.PRIVATE, Modifier.FINAL)
+                .addField(ViewRegistry.class, "viewRegistry", Modifier.PRIVATE, Modifier.FINAL);
+        addMethod(dbHelperBuilder, MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
                 .addParameter(Database.class, "database")
-                .returns(repoType);
-
-        String[] reposInit = new String[repos.size()];
-
-        int index = 0;
-        for (Map.Entry<TypeSpec, String> item : repos.entrySet()) {
-            TypeSpec helper = item.getKey();
-            String packageName = item.getValue();
-            String name = CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_CAMEL, helper.name);
-            TypeVariableName type = TypeVariableName.get(packageName + "." + helper.name);
-            FieldSpec field = FieldSpec.builder(type, name)
+                .addStatement("this.database = database")
+                .addStatement("this.viewRegistry = $T.forDatabase(database)", ViewRegistry.class)
+                .build());
+
+        for (Map.Entry<ClassName, TypeElement> item : repositories.entrySet()) {
+            ClassName type = item.getKey();
+            dbHelperBuilder.addOriginatingElement(item.getValue());
+            String name = CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_CAMEL, type.simpleName());
+            FieldSpec field = FieldSpec.builder(type, name, Modifier.PRIVATE, Modifier.VOLATILE)
                     .build();
 
-            constructorBuilder.addParameter(type, name);
-            constructorBuilder.addStatement("this.$L = $L", name, name);
-
-            MethodSpec getter = MethodSpec.methodBuilder("get" + helper.name)
+            // Double-checked, so the lock is only taken until the repository is created
+            MethodSpec getter = MethodSpec.methodBuilder("get" + type.simpleName())
                     .addModifiers(Modifier.PUBLIC)
-                    .addStatement("return $L", name)
                     .returns(type)
+                    .addStatement("$T repository = $N", type, field)
+                    .beginControlFlow("if (repository == null)")
+                    .beginControlFlow("synchronized (this)")
+                    .addStatement("repository = $N", field)
+                    .beginControlFlow("if (repository == null)")
+                    .addStatement("repository = new $T(database, viewRegistry)", type)
+                    .addStatement("$N = repository", field)
+                    .endControlFlow()
+                    .endControlFlow()
+                    .endControlFlow()
+                    .addStatement("return repository")
                     .build();
             addField(dbHelperBuilder, field);
             addMethod(dbHelperBuilder, getter);
+        }
+        addMethod(dbHelperBuilder, MethodSpec.methodBuilder("create")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .addParameter(Database.class, "database")
+                .returns(ClassName.get(DB_HELPER_PACKAGE, DB_HELPER_NAME))
+                .addStatement("return new $L(database)", DB_HELPER_NAME)
+                .build());
+        addMethod(dbHelperBuilder, MethodSpec.methodBuilder("warmUp")
+                .addJavadoc("Builds the index of every view in parallel on the executor, so the first queries\n"
+                        + "don't have to. Meant to be called right after {@link #create}: the repositories and\n"
+                        + "their views are created on the executor as well.\n")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(Executor.class, "executor")
+                .returns(ParameterizedTypeName.get(ClassName.get(ListenableFuture.class),
+                        ParameterizedTypeName.get(List.class, View.class)))
+                .addStatement("return $T.updateIndexes($L, executor)",
+                        ViewRegistry.class,
+                        TypeSpec.anonymousClassBuilder("")
+                                .addSuperinterface(ParameterizedTypeName.get(ClassName.get(Callable.class),
+                                        ParameterizedTypeName.get(List.class, View.class)))
+                                .addMethod(MethodSpec.methodBuilder("call")
+                                        .addAnnotation(Override.class)
+                                        .addModifiers(Modifier.PUBLIC)
+                                        .returns(ParameterizedTypeName.get(List.class, View.class))
+                                        .addStatement("return $T.getViews($L.this)",
+                                                ClassName.get(DB_HELPER_PACKAGE, INDEX_REGISTRY_NAME),
+                                                DB_HELPER_NAME)
+                                        .build())
+                                .build())
+                .build());
+
+        return dbHelperBuilder.build();
+    }
 
-            createBuilder.addStatement("$T $L = new $L(database)",
-                    type,
-                    name,
-                    type
-            );
-            reposInit[index] = name;
-
-            index++;
+    /**
+     * Lists the views of every document: the type view, then the {@code @Index} and
+     * {@code @Aggregate} views, each versioned by its definition.
+     */
+    private TypeSpec buildIndexRegistry() {
+        TypeSpec.Builder registryBuilder = TypeSpec.classBuilder(INDEX_REGISTRY_NAME)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(Modifier.PRIVATE)
+                        .build());
+        MethodSpec.Builder getViews = MethodSpec.methodBuilder("getViews")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .addParameter(ClassName.get(DB_HELPER_PACKAGE, DB_HELPER_NAME), "dbHelper")
+                .returns(ParameterizedTypeName.get(List.class, View.class))
+                .addStatement("$T<$T> views = new $T<$T>()", List.class, View.class, ArrayList.class, View.class);
+        for (Map.Entry<ClassName, TypeElement> item : repositories.entrySet()) {
+            registryBuilder.addOriginatingElement(item.getValue());
+            getViews.addStatement("views.addAll(dbHelper.get$L().getViews())", item.getKey().simpleName());
         }
-        createBuilder.addStatement("return new $L($L)", repoType, Joiner.on(",\n\t\t").join(reposInit));
-        addMethod(dbHelperBuilder, constructorBuilder.build());
-        addMethod(dbHelperBuilder, createBuilder.build());
+        getViews.addStatement("return views");
+
+        return registryBuilder.addMethod(getViews.build()).build();
     }
 
-    private void buildFinders(TypeSpec.Builder helperBuilder, Set<Element> fields, TypeVariableName returnType) {
+    private void buildFinders(TypeSpec.Builder helperBuilder, TypeSpec.Builder asyncBuilder, ClassName repoClass, Set<Element> fields, TypeVariableName returnType, boolean projected) {
+        Map<String, FieldSpec> allIndexes = new TreeMap<>();
+        Map<String, FieldSpec> uniqueIndexes = new TreeMap<>();
         for (Element el : fields) {
             if (el.getKind() == ElementKind.FIELD) {
-                String fieldname = el.getSimpleName().toString();
                 Index index = el.getAnnotation(Index.class);
-                TypeName typeName = getTypeName(el);
                 if (index.unique()) {
-                    buildUniqueFinder(helperBuilder, returnType, typeName, fieldname);
+                    FieldSpec indexField = buildUniqueFinder(helperBuilder, asyncBuilder, repoClass, returnType, el);
+                    uniqueIndexes.put(indexField.name, indexField);
+                    allIndexes.put(indexField.name, indexField);
                 } else {
-                    buildFinder(helperBuilder, returnType, typeName, fieldname);
+                    FieldSpec indexField = buildFinder(helperBuilder, asyncBuilder, repoClass, returnType, el, projected);
+                    allIndexes.put(indexField.name, indexField);
                 }
             }
 
@@ -372,27 +502,31 @@ public class DocumentProcessor extends AbstractProcessor {
                     if (index.unique()) {
                         helperBuilder.addJavadoc("Unique\n");
                         if (index.fields().length > 1) {
-                            buildMultipleUniqueFinder(helperBuilder, returnType, el, index.fields());
+                            FieldSpec indexField = buildMultipleUniqueFinder(helperBuilder, asyncBuilder, repoClass, returnType, el, index.fields());
+                            uniqueIndexes.put(indexField.name, indexField);
+                            allIndexes.put(indexField.name, indexField);
                         } else {
                             String fieldname = index.fields()[0];
                             for (Element e : el.getEnclosedElements()) {
                                 if (e.getSimpleName().toString().equals(fieldname)) {
-                                    TypeName typeName = getTypeName(e);
-                                    buildUniqueFinder(helperBuilder, returnType, typeName, fieldname);
+                                    FieldSpec indexField = buildUniqueFinder(helperBuilder, asyncBuilder, repoClass, returnType, e);
+                                    uniqueIndexes.put(indexField.name, indexField);
+                                    allIndexes.put(indexField.name, indexField);
                                     break;
                                 }
                             }
                         }
                     } else {
                         if (index.fields().length > 1) {
-                            buildMultipleFinder(helperBuilder, returnType, el, index.fields());
+                            FieldSpec indexField = buildMultipleFinder(helperBuilder, asyncBuilder, repoClass, returnType, el, index.fields(), projected);
+                            allIndexes.put(indexField.name, indexField);
                         } else {
                             String fieldname = index.fields()[0];
                             for (Element e : el.getEnclosedElements()) {
                                 if (e.getKind().equals(ElementKind.FIELD)) {
                                     if (e.getSimpleName().toString().equals(fieldname)) {
-                                        TypeName typeName = getTypeName(e);
-                                        buildFinder(helperBuilder, returnType, typeName, fieldname);
+                                        FieldSpec indexField = buildFinder(helperBuilder, asyncBuilder, repoClass, returnType, e, projected);
+                                        allIndexes.put(indexField.name, indexField);
                                     }
                                 }
                             }
@@ -401,9 +535,38 @@ public class DocumentProcessor extends AbstractProcessor {
                 }
             }
         }
+        if (!allIndexes.isEmpty()) {
+            buildDefinitions(helperBuilder, IndexDefinition.class, "INDEXES", "getIndexes", allIndexes.values());
+        }
+        if (!uniqueIndexes.isEmpty()) {
+            buildDefinitions(helperBuilder, IndexDefinition.class, "UNIQUE_INDEXES", "getUniqueIndexes", uniqueIndexes.values());
+        }
     }
 
-    private void buildMultipleFinder(TypeSpec.Builder helperBuilder, TypeVariableName returnType, Element parent, String[] fieldnames) {
+    /**
+     * Adds a constant array with the given definitions, returned by an override of the given
+     * {@link BaseRepository} method.
+     */
+    private void buildDefinitions(TypeSpec.Builder helperBuilder, Class<?> type, String name, String getter, Collection<FieldSpec> definitions) {
+        CodeBlock.Builder definitionsCode = CodeBlock.builder();
+        int i = 0;
+        for (FieldSpec definition : definitions) {
+            definitionsCode.add(i++ == 0 ? "$N" : ", $N", definition);
+        }
+        FieldSpec definitionsField = FieldSpec.builder(ArrayTypeName.of(type), name)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T[]{$L}", type, definitionsCode.build())
+                .build();
+        addField(helperBuilder, definitionsField);
+        addMethod(helperBuilder, MethodSpec.methodBuilder(getter)
+                .addModifiers(Modifier.PROTECTED)
+                .addAnnotation(Override.class)
+                .returns(ArrayTypeName.of(type))
+                .addStatement("return $N", definitionsField)
+                .build());
+    }
+
+    private FieldSpec buildMultipleFinder(TypeSpec.Builder helperBuilder, TypeSpec.Builder asyncBuilder, ClassName repoClass, TypeVariableName returnType, Element parent, String[] fieldnames, boolean projected) {
 
         String[] fieldNames = new String[fieldnames.length];
         for (int i = 0; i < fieldnames.length; i++) {
@@ -430,25 +593,77 @@ public class DocumentProcessor extends AbstractProcessor {
 //                        fieldname
 //                )
                 ;
+        MethodSpec.Builder findByPaged = MethodSpec.methodBuilder(findByName + "Paged")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ParameterizedTypeName.get(ClassName.get(Page.class), returnType))
+                .addStatement("$T keyValueMap = new $T()",
+                        params,
+                        params
+                );
+        MethodSpec.Builder observeBy = MethodSpec.methodBuilder("observeBy" + names)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ParameterizedTypeName.get(ClassName.get(RepositoryObserver.class), returnType))
+                .addStatement("$T keyValueMap = new $T()",
+                        params,
+                        params
+                );
+        MethodSpec.Builder findProjectionsBy = MethodSpec.methodBuilder("findProjectionsBy" + names)
+                .addJavadoc(PROJECTION_JAVADOC)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(returnTypeName)
+                .addStatement("$T keyValueMap = new $T()",
+                        params,
+                        params
+                );
+        MethodSpec.Builder countBy = MethodSpec.methodBuilder("countBy" + names)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(int.class)
+                .addStatement("$T keyValueMap = new $T()",
+                        params,
+                        params
+                );
+        List<Element> fields = new ArrayList<>();
         for (Element e : parent.getEnclosedElements()) {
             if (e.getKind().equals(ElementKind.FIELD)) {
                 for (String fieldname : fieldnames) {
                     if (e.getSimpleName().toString().equals(fieldname)) {
-                        findBy.addParameter(getTypeName(e), fieldname);
-                        findBy.addStatement("keyValueMap.put($T.$L, $L)",
-                                returnType,
-                                fieldname.toUpperCase(),
-                                fieldname
-                        );
+                        fields.add(e);
+                        for (MethodSpec.Builder method : Arrays.asList(findBy, findByPaged, observeBy, findProjectionsBy, countBy)) {
+                            method.addParameter(getTypeName(e), fieldname);
+                            method.addStatement("keyValueMap.put($T.$L, $L)",
+                                    returnType,
+                                    fieldname.toUpperCase(),
+                                    fieldname
+                            );
+                        }
                     }
                 }
             }
         }
-        findBy.addStatement("return findBy(keyValueMap)");
-        addMethod(helperBuilder, findBy.build());
+        FieldSpec indexField = buildIndexDefinition(helperBuilder, fields);
+        findBy.addStatement("return findByIndex($T.$N, $T.$N.keyFor(keyValueMap))", repoClass, indexField, repoClass, indexField);
+        addFinder(helperBuilder, asyncBuilder, findBy.build());
+
+        findByPaged.addParameter(PageRequest.class, "pageRequest")
+                .addStatement("return findByIndex($T.$N, $T.$N.keyFor(keyValueMap), pageRequest)", repoClass, indexField, repoClass, indexField);
+        addFinder(helperBuilder, asyncBuilder, findByPaged.build());
+
+        observeBy.addParameter(ParameterizedTypeName.get(ClassName.get(ResultChangeListener.class), returnType), "listener")
+                .addStatement("return observeByIndex($T.$N, $T.$N.keyFor(keyValueMap), listener)", repoClass, indexField, repoClass, indexField);
+        addMethod(helperBuilder, observeBy.build());
+
+        countBy.addStatement("return countByIndex($T.$N, $T.$N.keyFor(keyValueMap))", repoClass, indexField, repoClass, indexField);
+        addFinder(helperBuilder, asyncBuilder, countBy.build());
+
+        if (projected) {
+            findProjectionsBy.addStatement("return findProjectionsByIndex($T.$N, $T.$N.keyFor(keyValueMap))", repoClass, indexField, repoClass, indexField);
+            addFinder(helperBuilder, asyncBuilder, findProjectionsBy.build());
+        }
+
+        return indexField;
     }
 
-    private void buildMultipleUniqueFinder(TypeSpec.Builder helperBuilder, TypeVariableName returnType, Element parent, String[] fieldnames) {
+    private FieldSpec buildMultipleUniqueFinder(TypeSpec.Builder helperBuilder, TypeSpec.Builder asyncBuilder, ClassName repoClass, TypeVariableName returnType, Element parent, String[] fieldnames) {
 
         String[] fieldNames = new String[fieldnames.length];
         for (int i = 0; i < fieldnames.length; i++) {
@@ -468,10 +683,12 @@ public class DocumentProcessor extends AbstractProcessor {
                         params,
                         params
                 );
+        List<Element> fields = new ArrayList<>();
         for (Element e : parent.getEnclosedElements()) {
             if (e.getKind().equals(ElementKind.FIELD)) {
                 for (String fieldname : fieldnames) {
                     if (e.getSimpleName().toString().equals(fieldname)) {
+                        fields.add(e);
                         findBy.addParameter(getTypeName(e), fieldname);
                         findBy.addStatement("keyValueMap.put($T.$L, $L)",
                                 returnType,
@@ -482,38 +699,739 @@ public class DocumentProcessor extends AbstractProcessor {
                 }
             }
         }
-        findBy.addStatement("return findOneBy(keyValueMap)");
-        addMethod(helperBuilder, findBy.build());
+        FieldSpec indexField = buildIndexDefinition(helperBuilder, fields);
+        findBy.addStatement("return findOneByIndex($T.$N, $T.$N.keyFor(keyValueMap))", repoClass, indexField, repoClass, indexField);
+        addFinder(helperBuilder, asyncBuilder, findBy.build());
+
+        return indexField;
     }
 
-    private void buildFinder(TypeSpec.Builder helperBuilder, TypeVariableName returnType, TypeName typeName, String fieldname) {
+    private FieldSpec buildFinder(TypeSpec.Builder helperBuilder, TypeSpec.Builder asyncBuilder, ClassName repoClass, TypeVariableName returnType, Element field, boolean projected) {
+        String fieldname = field.getSimpleName().toString();
         String findByName = "findBy" + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, fieldname);
+        FieldSpec indexField = buildIndexDefinition(helperBuilder, Collections.singletonList(field));
+        buildRangeFinders(helperBuilder, asyncBuilder, repoClass, returnType, field, indexField);
 
         ParameterizedTypeName t = ParameterizedTypeName.get(ClassName.get(Collection.class), returnType);
         MethodSpec findBy = MethodSpec.methodBuilder(findByName)
                 .addModifiers(Modifier.PUBLIC)
-                .addParameter(typeName, fieldname)
+                .addParameter(getTypeName(field), fieldname)
                 .returns(t)
-                .addStatement("return findBy($T.$L, $L)",
-                        returnType,
-                        fieldname.toUpperCase(),
+                .addStatement("return findByIndex($T.$N, $L)",
+                        repoClass,
+                        indexField,
                         fieldname)
                 .build();
-        addMethod(helperBuilder, findBy);
+        addFinder(helperBuilder, asyncBuilder, findBy);
+
+        MethodSpec findByPaged = MethodSpec.methodBuilder(findByName + "Paged")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(getTypeName(field), fieldname)
+                .addParameter(PageRequest.class, "pageRequest")
+                .returns(ParameterizedTypeName.get(ClassName.get(Page.class), returnType))
+                .addStatement("return findByIndex($T.$N, $L, pageRequest)",
+                        repoClass,
+                        indexField,
+                        fieldname)
+                .build();
+        addFinder(helperBuilder, asyncBuilder, findByPaged);
+
+        MethodSpec observeBy = MethodSpec.methodBuilder("observeBy" + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, fieldname))
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(getTypeName(field), fieldname)
+                .addParameter(ParameterizedTypeName.get(ClassName.get(ResultChangeListener.class), returnType), "listener")
+                .returns(ParameterizedTypeName.get(ClassName.get(RepositoryObserver.class), returnType))
+                .addStatement("return observeByIndex($T.$N, $L, listener)",
+                        repoClass,
+                        indexField,
+                        fieldname)
+                .build();
+        addMethod(helperBuilder, observeBy);
+
+        String names = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, fieldname);
+        addFinder(helperBuilder, asyncBuilder, MethodSpec.methodBuilder("countBy" + names)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(getTypeName(field), fieldname)
+                .returns(int.class)
+                .addStatement("return countByIndex($T.$N, $L)",
+                        repoClass,
+                        indexField,
+                        fieldname)
+                .build());
+        addFinder(helperBuilder, asyncBuilder, MethodSpec.methodBuilder("countGroupedBy" + names)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ParameterizedTypeName.get(Map.class, Object.class, Integer.class))
+                .addStatement("return countGroupedByIndex($T.$N)",
+                        repoClass,
+                        indexField)
+                .build());
+
+        if (projected) {
+            MethodSpec findProjectionsBy = MethodSpec.methodBuilder("findProjectionsBy" + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, fieldname))
+                    .addJavadoc(PROJECTION_JAVADOC)
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameter(getTypeName(field), fieldname)
+                    .returns(t)
+                    .addStatement("return findProjectionsByIndex($T.$N, $L)",
+                            repoClass,
+                            indexField,
+                            fieldname)
+                    .build();
+            addFinder(helperBuilder, asyncBuilder, findProjectionsBy);
+        }
+
+        return indexField;
     }
 
-    private void buildUniqueFinder(TypeSpec.Builder helperBuilder, TypeVariableName returnType, TypeName typeName, String fieldname) {
+    private FieldSpec buildUniqueFinder(TypeSpec.Builder helperBuilder, TypeSpec.Builder asyncBuilder, ClassName repoClass, TypeVariableName returnType, Element field) {
+        String fieldname = field.getSimpleName().toString();
         String findOneByName = "findOneBy" + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, fieldname);
+        FieldSpec indexField = buildIndexDefinition(helperBuilder, Collections.singletonList(field));
+        buildRangeFinders(helperBuilder, asyncBuilder, repoClass, returnType, field, indexField);
         MethodSpec findOneBy = MethodSpec.methodBuilder(findOneByName)
                 .addModifiers(Modifier.PUBLIC)
-                .addParameter(typeName, fieldname)
+                .addParameter(getTypeName(field), fieldname)
                 .returns(returnType)
-                .addStatement("return findOneBy($T.$L, $L)",
-                        returnType,
-                        fieldname.toUpperCase(),
+                .addStatement("return findOneByIndex($T.$N, $L)",
+                        repoClass,
+                        indexField,
+                        fieldname)
+                .build();
+        addFinder(helperBuilder, asyncBuilder, findOneBy);
+
+        return indexField;
+    }
+
+    /**
+     * Adds an {@link AggregateDefinition} for every {@code @Aggregate} property, with methods
+     * reading its statistics overall and, if grouped, per group.
+     *
+     * @return false if an aggregate is not valid
+     */
+    private boolean buildAggregates(TypeSpec.Builder repoBuilder, TypeSpec.Builder asyncBuilder, ClassName repoClass, TypeElement typeElement, List<Element> aggregates) {
+        List<FieldSpec> aggregateFields = new ArrayList<>();
+        for (Element el : aggregates) {
+            String fieldname = el.getSimpleName().toString();
+            String typeName = getTypeName(el).toString();
+            if (!primitives.containsKey(typeName) || typeName.equals("java.lang.String")
+                    || typeName.endsWith("char") || typeName.endsWith("Character")
+                    || typeName.endsWith("boolean") || typeName.endsWith("Boolean")) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Only numeric properties can be aggregated.", el);
+                return false;
+            }
+            String[] groupBy = el.getAnnotation(Aggregate.class).groupBy();
+            String[] groupByFields = new String[groupBy.length];
+            String[] groupByNames = new String[groupBy.length];
+            for (int i = 0; i < groupBy.length; i++) {
+                for (Element e : typeElement.getEnclosedElements()) {
+                    if (e.getKind() == ElementKind.FIELD && e.getSimpleName().toString().equals(groupBy[i])) {
+                        groupByFields[i] = getDocFieldName(e);
+                    }
+                }
+                if (groupByFields[i] == null) {
+                    messager.printMessage(Diagnostic.Kind.ERROR, "Unknown groupBy property: " + groupBy[i], el);
+                    return false;
+                }
+                groupByNames[i] = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, groupBy[i]);
+            }
+            AggregateDefinition definition = AggregateDefinition.of(getDocFieldName(el), groupByFields);
+
+            CodeBlock.Builder groupByCode = CodeBlock.builder();
+            for (int i = 0; i < groupByFields.length; i++) {
+                groupByCode.add(i == 0 ? "$S" : ", $S", groupByFields[i]);
+            }
+            String constant = "AGGREGATE_" + fieldname.toUpperCase()
+                    + (groupBy.length > 0 ? "_BY_" + Joiner.on('_').join(groupBy).toUpperCase() : "");
+            FieldSpec aggregateField = FieldSpec.builder(AggregateDefinition.class, constant)
+                    .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("new $T($S, $S, new $T[]{$L}, $S)",
+                            AggregateDefinition.class,
+                            definition.getName(),
+                            definition.getField(),
+                            String.class,
+                            groupByCode.build(),
+                            definition.getVersion())
+                    .build();
+            addField(repoBuilder, aggregateField);
+            aggregateFields.add(aggregateField);
+
+            String methodName = "aggregate" + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, fieldname);
+            if (groupBy.length == 0) {
+                addFinder(repoBuilder, asyncBuilder, MethodSpec.methodBuilder(methodName)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(Statistics.class)
+                        .addStatement("return aggregate($T.$N)", repoClass, aggregateField)
+                        .build());
+            } else {
+                addFinder(repoBuilder, asyncBuilder, MethodSpec.methodBuilder(methodName + "By" + Joiner.on("And").join(groupByNames))
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(ParameterizedTypeName.get(Map.class, Object.class, Statistics.class))
+                        .addStatement("return aggregateGrouped($T.$N)", repoClass, aggregateField)
+                        .build());
+            }
+        }
+        if (!aggregateFields.isEmpty()) {
+            buildDefinitions(repoBuilder, AggregateDefinition.class, "AGGREGATES", "getAggregates", aggregateFields);
+        }
+
+        return true;
+    }
+
+    /**
+     * Derives the document id from the {@code idFrom} properties, and adds a {@code findOneByKey}
+     * finder loading the document straight by its id.
+     *
+     * @return false if a property cannot be used in the id
+     */
+    private boolean buildIdStrategy(TypeSpec.Builder repoBuilder, TypeSpec.Builder asyncBuilder, ClassName repoClass, TypeElement typeElement, TypeVariableName returnType, Document annotation) {
+        String typeVarName = typeElement.getSimpleName().toString().toLowerCase();
+        MethodSpec.Builder idFor = MethodSpec.methodBuilder("idFor")
+                .addJavadoc("Returns the id of the document with the given key, or null if any value is missing.\n")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(String.class);
+        MethodSpec.Builder findOneByKey = MethodSpec.methodBuilder("findOneByKey")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(returnType);
+        CodeBlock.Builder idValues = CodeBlock.builder();
+        CodeBlock.Builder entityValues = CodeBlock.builder();
+        String[] idFrom = annotation.idFrom();
+        for (int i = 0; i < idFrom.length; i++) {
+            String fieldname = idFrom[i];
+            Element field = null;
+            for (Element e : typeElement.getEnclosedElements()) {
+                if (e.getKind() == ElementKind.FIELD && e.getSimpleName().toString().equals(fieldname)) {
+                    field = e;
+                }
+            }
+            if (field == null || !primitives.containsKey(getTypeName(field).toString())) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "idFrom must name primitive or String fields: " + fieldname, typeElement);
+                return false;
+            }
+            idFor.addParameter(getTypeName(field), fieldname);
+            findOneByKey.addParameter(getTypeName(field), fieldname);
+            idValues.add(", $L", fieldname);
+            entityValues.add(i == 0 ? "$L.$N()" : ", $L.$N()",
+                    typeVarName,
+                    generateProxyGetter(fieldname, getTypeName(field)));
+        }
+        idFor.addStatement("return buildId($S$L)", annotation.type(), idValues.build());
+        MethodSpec idForSpec = idFor.build();
+        addMethod(repoBuilder, idForSpec);
+        addMethod(repoBuilder, MethodSpec.methodBuilder("deriveId")
+                .addModifiers(Modifier.PROTECTED)
+                .addAnnotation(Override.class)
+                .addParameter(returnType, typeVarName)
+                .returns(String.class)
+                .addStatement("return $N($L)", idForSpec, entityValues.build())
+                .build());
+        String arguments = Joiner.on(", ").join(idFrom);
+        addFinder(repoBuilder, asyncBuilder, findOneByKey
+                .addStatement("return findOneById($T.$N($L))", repoClass, idForSpec, arguments)
+                .build());
+
+        return true;
+    }
+
+    /**
+     * Generates the proxy of an embedded class, and a codec storing it as a nested map of its
+     * properties.
+     */
+    private void buildEmbedded(TypeElement typeElement) {
+        String packageName = elementUtils.getPackageOf(typeElement).getQualifiedName().toString() + PACKAGE_SUFFIX;
+        String typeVarName = typeElement.getSimpleName().toString().toLowerCase();
+        ClassName proxyClass = ClassName.get(packageName, typeElement.getSimpleName().toString());
+        TypeSpec.Builder proxyBuilder = TypeSpec.classBuilder(proxyClass.simpleName())
+                .addOriginatingElement(typeElement)
+                .superclass(TypeName.get(typeElement.asType()))
+                .addModifiers(Modifier.PUBLIC);
+        TypeSpec.Builder codecBuilder = TypeSpec.classBuilder(proxyClass.simpleName() + CODEC_SUFFIX)
+                .addOriginatingElement(typeElement)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addSuperinterface(ParameterizedTypeName.get(ClassName.get(Codec.class), proxyClass));
+        ClassName codecClass = ClassName.get(packageName, proxyClass.simpleName() + CODEC_SUFFIX);
+        addField(codecBuilder, FieldSpec.builder(codecClass, "INSTANCE")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T()", codecClass)
+                .build());
+
+        CodeBlock.Builder decode = CodeBlock.builder()
+                .beginControlFlow("if (value == null)")
+                .addStatement("return null")
+                .endControlFlow()
+                .addStatement("$T properties = ($T) value",
+                        ParameterizedTypeName.get(Map.class, String.class, Object.class),
+                        ParameterizedTypeName.get(Map.class, String.class, Object.class))
+                .addStatement("$T $L = new $T()", proxyClass, typeVarName, proxyClass);
+        CodeBlock.Builder encode = CodeBlock.builder()
+                .beginControlFlow("if ($L == null)", typeVarName)
+                .addStatement("return null")
+                .endControlFlow()
+                .addStatement("$T<$T, Object> properties = new $T<$T,Object>()",
+                        HashMap.class,
+                        String.class,
+                        HashMap.class,
+                        String.class
+                );
+        for (Element el : typeElement.getEnclosedElements()) {
+            if (el.getKind() != ElementKind.FIELD || el.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            String fieldname = el.getSimpleName().toString();
+            TypeName fieldType = getProxyTypeName(el.asType());
+            MethodSpec getter = generateProxyGetter(fieldname, fieldType);
+            MethodSpec setter = generateProxySetter(fieldname, fieldType);
+            addField(proxyBuilder, FieldSpec.builder(fieldType, fieldname, Modifier.PRIVATE).build());
+            addMethod(proxyBuilder, getter);
+            addMethod(proxyBuilder, setter);
+            addField(proxyBuilder, FieldSpec.builder(String.class, fieldname.toUpperCase())
+                    .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("$S", getDocFieldName(el))
+                    .build());
+            addPropertyCode(codecBuilder, typeElement, el, getter, setter, decode, encode);
+        }
+        decode.addStatement("return $L", typeVarName);
+        encode.addStatement("return properties");
+
+        addMethod(codecBuilder, MethodSpec.methodBuilder("encode")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(Override.class)
+                .addParameter(proxyClass, typeVarName)
+                .returns(Object.class)
+                .addCode(encode.build())
+                .build());
+        addMethod(codecBuilder, MethodSpec.methodBuilder("decode")
+                .addModifiers(Modifier.PUBLIC)
+                .addAnnotation(Override.class)
+                .addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                        .addMember("value", "$S", "unchecked")
+                        .build())
+                .addParameter(Object.class, "value")
+                .returns(proxyClass)
+                .addCode(decode.build())
+                .build());
+        try {
+            writeClassToDisk(packageName, proxyBuilder.build());
+            writeClassToDisk(packageName, codecBuilder.build());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds the code reading the field from {@code properties} and writing it back: primitive
+     * types are stored as-is, other supported types through a {@link Codec} kept in a constant
+     * of the generated class.
+     */
+    private void addPropertyCode(TypeSpec.Builder builder, TypeElement typeElement, Element el, MethodSpec getter, MethodSpec setter, CodeBlock.Builder unserializeCode, CodeBlock.Builder serializePropertiesCode) {
+        String fieldname = el.getSimpleName().toString();
+        String typeVarName = typeElement.getSimpleName().toString().toLowerCase();
+        TypeName fieldType = getProxyTypeName(el.asType());
+        Property property = el.getAnnotation(Property.class);
+        if (primitives.containsKey(fieldType.toString())) {
+            unserializeCode.addStatement("$N.$N($T.$L(properties.get($L.$L)))",
+                    typeVarName,
+                    setter,
+                    PropertyConverter.class,
+                    primitives.get(fieldType.toString()),
+                    typeElement.getSimpleName(),
+                    fieldname.toUpperCase()
+            );
+            serializePropertiesCode.addStatement("properties.put($N.$L, $N.$N())",
+                    typeVarName,
+                    fieldname.toUpperCase(),
+                    typeVarName,
+                    getter);
+            return;
+        }
+        if (property != null && property.cast()) {
+            String value = fieldname + "Value";
+            String method = property.method().length() > 0 ? "." + property.method() : "";
+            unserializeCode.addStatement("$T $L = properties.get($L.$L)",
+                    Object.class,
+                    value,
+                    typeElement.getSimpleName(),
+                    fieldname.toUpperCase()
+            );
+            unserializeCode.addStatement("$N.$N($L == null ? null : (($T) $L)$L)",
+                    typeVarName,
+                    setter,
+                    value,
+                    fieldType,
+                    value,
+                    method
+            );
+            serializePropertiesCode.addStatement("properties.put($N.$L, $N.$N())",
+                    typeVarName,
+                    fieldname.toUpperCase(),
+                    typeVarName,
+                    getter);
+            return;
+        }
+        CodeBlock codec = getCodec(el.asType(), el);
+        if (codec == null) {
+            unserializeCode.addStatement("// $S", fieldType.toString());
+            return;
+        }
+        FieldSpec codecField = FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(Codec.class), fieldType.box()),
+                fieldname.toUpperCase() + "_CODEC")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer(codec)
+                .build();
+        addField(builder, codecField);
+        unserializeCode.addStatement("$N.$N($N.decode(properties.get($L.$L)))",
+                typeVarName,
+                setter,
+                codecField,
+                typeElement.getSimpleName(),
+                fieldname.toUpperCase()
+        );
+        serializePropertiesCode.addStatement("properties.put($N.$L, $N.encode($N.$N()))",
+                typeVarName,
+                fieldname.toUpperCase(),
+                codecField,
+                typeVarName,
+                getter);
+    }
+
+    /**
+     * Builds the expression of the {@link Codec} for the given type, or returns null if the
+     * type is not supported.
+     */
+    private CodeBlock getCodec(TypeMirror type, Element field) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        Element element = typeUtils.asElement(type);
+        List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+        String name = ((TypeElement) element).getQualifiedName().toString();
+        if (element.getKind() == ElementKind.ENUM) {
+            Property property = field.getAnnotation(Property.class);
+            boolean ordinal = property != null && property.ordinal();
+            return CodeBlock.of("$T.$L($T.class)", Codecs.class, ordinal ? "enumByOrdinal" : "enumByName", type);
+        }
+        if (element.getAnnotation(Embedded.class) != null) {
+            String packageName = elementUtils.getPackageOf(element).getQualifiedName().toString() + PACKAGE_SUFFIX;
+            return CodeBlock.of("$T.INSTANCE", ClassName.get(packageName, element.getSimpleName() + CODEC_SUFFIX));
+        }
+        if (codecs.containsKey(name)) {
+            return CodeBlock.of("$T.$L", Codecs.class, codecs.get(name));
+        }
+        if (name.equals(List.class.getCanonicalName()) && arguments.size() == 1) {
+            CodeBlock item = getCodec(arguments.get(0), field);
+            return item == null ? null : CodeBlock.of("$T.list($L)", Codecs.class, item);
+        }
+        if (name.equals(Map.class.getCanonicalName()) && arguments.size() == 2
+                && arguments.get(0).toString().equals(String.class.getCanonicalName())) {
+            CodeBlock value = getCodec(arguments.get(1), field);
+            return value == null ? null : CodeBlock.of("$T.map($L)", Codecs.class, value);
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the type used by the proxies for the given field type: embedded classes are
+     * replaced by their proxy, also inside type arguments.
+     */
+    private TypeName getProxyTypeName(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return TypeName.get(type);
+        }
+        TypeElement element = (TypeElement) typeUtils.asElement(type);
+        if (element.getAnnotation(Embedded.class) != null) {
+            String packageName = elementUtils.getPackageOf(element).getQualifiedName().toString() + PACKAGE_SUFFIX;
+            return ClassName.get(packageName, element.getSimpleName().toString());
+        }
+        List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+        if (arguments.isEmpty()) {
+            return TypeName.get(type);
+        }
+        TypeName[] proxyArguments = new TypeName[arguments.size()];
+        for (int i = 0; i < arguments.size(); i++) {
+            proxyArguments[i] = getProxyTypeName(arguments.get(i));
+        }
+
+        return ParameterizedTypeName.get(ClassName.get(element), proxyArguments);
+    }
+
+    /**
+     * Stores the referenced ids and exposes the entities through lazy references on the proxy.
+     * A {@code fetchX} method is added to the repository to load the references of a whole
+     * result with a single query.
+     *
+     * @return false if the field cannot be mapped
+     */
+    private boolean buildRelation(TypeSpec.Builder proxyBuilder, TypeSpec.Builder repoBuilder, TypeElement typeElement, String packageName, Element el, CodeBlock.Builder unserializeCode, CodeBlock.Builder serializePropertiesCode) {
+        String fieldname = el.getSimpleName().toString();
+        String capitalized = CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, fieldname);
+        String typeVarName = typeElement.getSimpleName().toString().toLowerCase();
+        boolean many = el.getAnnotation(OneToMany.class) != null;
+
+        TypeMirror targetType = el.asType();
+        if (many) {
+            TypeMirror list = typeUtils.erasure(elementUtils.getTypeElement(List.class.getCanonicalName()).asType());
+            if (!typeUtils.isSameType(typeUtils.erasure(targetType), list)
+                    || ((DeclaredType) targetType).getTypeArguments().size() != 1) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "@OneToMany can only be applied to List fields.", el);
+                return false;
+            }
+            targetType = ((DeclaredType) targetType).getTypeArguments().get(0);
+        }
+        Element target = targetType.getKind() == TypeKind.DECLARED ? typeUtils.asElement(targetType) : null;
+        if (target == null || target.getAnnotation(Document.class) == null) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Relations can only reference @Document classes.", el);
+            return false;
+        }
+        String targetPackage = elementUtils.getPackageOf(target).getQualifiedName().toString() + PACKAGE_SUFFIX;
+        ClassName targetProxy = ClassName.get(targetPackage, target.getSimpleName().toString());
+        ClassName targetRepo = ClassName.get(targetPackage, target.getSimpleName() + REPO_SUFFIX);
+        ClassName proxyClass = ClassName.get(packageName + PACKAGE_SUFFIX, typeElement.getSimpleName().toString());
+        TypeName holderType = ParameterizedTypeName.get(ClassName.get(many ? ReferenceList.class : Reference.class), targetProxy);
+        TypeName valueType = many ? ParameterizedTypeName.get(ClassName.get(List.class), targetProxy) : targetProxy;
+        TypeName idType = many ? ParameterizedTypeName.get(List.class, String.class) : ClassName.get(String.class);
+        String idGetter = "get" + capitalized + (many ? "Ids" : "Id");
+
+        addField(proxyBuilder, FieldSpec.builder(String.class, fieldname.toUpperCase())
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .initializer("$S", getDocFieldName(el))
+                .build());
+        addField(proxyBuilder, FieldSpec.builder(holderType, fieldname, Modifier.PRIVATE).build());
+        addMethod(proxyBuilder, MethodSpec.methodBuilder("get" + capitalized)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(valueType)
+                .addStatement("return $L == null ? null : $L.get()", fieldname, fieldname)
+                .build());
+        addMethod(proxyBuilder, MethodSpec.methodBuilder("set" + capitalized)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(valueType, fieldname)
+                .addStatement("this.$L = $L == null ? null : $T.to($L)",
+                        fieldname,
+                        fieldname,
+                        many ? ReferenceList.class : Reference.class,
                         fieldname)
+                .build());
+        addMethod(proxyBuilder, MethodSpec.methodBuilder(idGetter)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(idType)
+                .addStatement("return $L == null ? null : $L.$L()", fieldname, fieldname, many ? "getIds" : "getId")
+                .build());
+        addMethod(proxyBuilder, MethodSpec.methodBuilder("get" + capitalized + "Reference")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(holderType)
+                .addStatement("return this.$L", fieldname)
+                .build());
+        addMethod(proxyBuilder, MethodSpec.methodBuilder("set" + capitalized + "Reference")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(holderType, fieldname)
+                .addStatement("this.$L = $L", fieldname, fieldname)
+                .build());
+
+        // A self reference is resolved by the repository itself
+        String repository = "this";
+        if (!typeElement.equals(target)) {
+            String repoField = CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_CAMEL, targetRepo.simpleName());
+            addField(repoBuilder, FieldSpec.builder(targetRepo, repoField, Modifier.PRIVATE).build());
+            MethodSpec repoGetter = MethodSpec.methodBuilder("get" + targetRepo.simpleName())
+                    .addModifiers(Modifier.PROTECTED, Modifier.SYNCHRONIZED)
+                    .returns(targetRepo)
+                    .beginControlFlow("if ($L == null)", repoField)
+                    .addStatement("$L = new $T(database, viewRegistry)", repoField, targetRepo)
+                    .endControlFlow()
+                    .addStatement("return $L", repoField)
+                    .build();
+            addMethod(repoBuilder, repoGetter);
+            repository = repoGetter.name + "()";
+        }
+
+        String constant = typeElement.getSimpleName() + "." + fieldname.toUpperCase();
+        if (many) {
+            unserializeCode.addStatement("$L.set$LReference(new $T($T.toStringList(properties.get($L)), $L))",
+                    typeVarName,
+                    capitalized,
+                    holderType,
+                    PropertyConverter.class,
+                    constant,
+                    repository);
+        } else {
+            String idVar = fieldname + "Id";
+            unserializeCode.addStatement("$T $L = $T.toStringOrNull(properties.get($L))",
+                    String.class,
+                    idVar,
+                    PropertyConverter.class,
+                    constant);
+            unserializeCode.addStatement("$L.set$LReference($L == null ? null : new $T($L, $L))",
+                    typeVarName,
+                    capitalized,
+                    idVar,
+                    holderType,
+                    idVar,
+                    repository);
+        }
+        serializePropertiesCode.addStatement("properties.put($L, $L.$L())", constant, typeVarName, idGetter);
+
+        TypeName holderList = ParameterizedTypeName.get(ClassName.get(List.class), holderType);
+        addMethod(repoBuilder, MethodSpec.methodBuilder("fetch" + capitalized)
+                .addJavadoc("Loads the $L of every given entity with a single query.\n", fieldname)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(ParameterizedTypeName.get(ClassName.get(Iterable.class), proxyClass), "entities")
+                .addStatement("$T references = new $T<$T>()", holderList, ArrayList.class, holderType)
+                .beginControlFlow("for ($T $L : entities)", proxyClass, typeVarName)
+                .beginControlFlow("if ($L.get$LReference() != null)", typeVarName, capitalized)
+                .addStatement("references.add($L.get$LReference())", typeVarName, capitalized)
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("$T.resolveAll(references, $L)", many ? ReferenceList.class : Reference.class, repository)
+                .build());
+
+        return true;
+    }
+
+    /**
+     * Emits the projected properties from every view of the type, and reads them back from the
+     * query rows in the same order.
+     */
+    private void buildProjection(TypeSpec.Builder repoBuilder, TypeElement typeElement, String packageName, List<Element> projected) {
+        String typeVarName = typeElement.getSimpleName().toString().toLowerCase();
+        CodeBlock.Builder fieldsCode = CodeBlock.builder();
+        CodeBlock.Builder unserializeRowCode = CodeBlock.builder()
+                .addStatement("$T<?> values = ($T<?>) row.getValue()", List.class, List.class)
+                .beginControlFlow("if (values == null)")
+                .addStatement("return unserialize(row)")
+                .endControlFlow()
+                .addStatement("$L $L = new $L()",
+                        typeElement.getSimpleName(),
+                        typeVarName,
+                        typeElement.getSimpleName()
+                )
+                .addStatement("$L.setId(row.getDocumentId())", typeVarName);
+        for (int i = 0; i < projected.size(); i++) {
+            Element el = projected.get(i);
+            String fieldname = el.getSimpleName().toString();
+            fieldsCode.add(i == 0 ? "$L.$L" : ", $L.$L", typeElement.getSimpleName(), fieldname.toUpperCase());
+            unserializeRowCode.addStatement("$L.$N($T.$L(values.get($L)))",
+                    typeVarName,
+                    generateProxySetter(fieldname, getTypeName(el)),
+                    PropertyConverter.class,
+                    primitives.get(getTypeName(el).toString()),
+                    i
+            );
+        }
+        unserializeRowCode.addStatement("return $L", typeVarName);
+
+        FieldSpec projection = FieldSpec.builder(String[].class, "PROJECTION")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T[]{$L}", String.class, fieldsCode.build())
+                .build();
+        addField(repoBuilder, projection);
+        addMethod(repoBuilder, MethodSpec.methodBuilder("getProjection")
+                .addModifiers(Modifier.PROTECTED)
+                .addAnnotation(Override.class)
+                .returns(String[].class)
+                .addStatement("return $N", projection)
+                .build());
+        addMethod(repoBuilder, MethodSpec.methodBuilder("unserializeRow")
+                .addModifiers(Modifier.PROTECTED)
+                .addAnnotation(Override.class)
+                .addParameter(QueryRow.class, "row")
+                .returns(ClassName.get(
+                        packageName + PACKAGE_SUFFIX,
+                        typeElement.getSimpleName().toString()))
+                .addCode(unserializeRowCode.build())
+                .build());
+    }
+
+    /**
+     * Adds the range finders of a single field index: {@code findByXBetween} (inclusive),
+     * {@code findByXGreaterThan} and, for strings, {@code findByXStartsWith}.
+     */
+    private void buildRangeFinders(TypeSpec.Builder helperBuilder, TypeSpec.Builder asyncBuilder, ClassName repoClass, TypeVariableName returnType, Element field, FieldSpec indexField) {
+        String fieldname = field.getSimpleName().toString();
+        String findByName = "findBy" + CaseFormat.LOWER_CAMEL.to(CaseFormat.UPPER_CAMEL, fieldname);
+        TypeName fieldType = getTypeName(field);
+        ParameterizedTypeName t = ParameterizedTypeName.get(ClassName.get(Collection.class), returnType);
+
+        addFinder(helperBuilder, asyncBuilder, MethodSpec.methodBuilder(findByName + "Between")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(fieldType, "from")
+                .addParameter(fieldType, "to")
+                .returns(t)
+                .addStatement("return findByIndexRange($T.$N, from, true, to)",
+                        repoClass,
+                        indexField)
+                .build());
+        addFinder(helperBuilder, asyncBuilder, MethodSpec.methodBuilder(findByName + "GreaterThan")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(fieldType, fieldname)
+                .returns(t)
+                .addStatement("return findByIndexRange($T.$N, $L, false, null)",
+                        repoClass,
+                        indexField,
+                        fieldname)
+                .build());
+        if (fieldType.equals(ClassName.get(String.class))) {
+            addFinder(helperBuilder, asyncBuilder, MethodSpec.methodBuilder(findByName + "StartsWith")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameter(fieldType, "prefix")
+                    .returns(t)
+                    // The highest character sorts after anything following the prefix
+                    .addStatement("return findByIndexRange($T.$N, prefix, true, prefix + $L)",
+                            repoClass,
+                            indexField,
+                            "\"\\uffff\"")
+                    .build());
+        }
+    }
+
+    /**
+     * Adds the finder to the repository, and its asynchronous counterpart (same body, result
+     * wrapped in a future) to the async repository.
+     */
+    private void addFinder(TypeSpec.Builder helperBuilder, TypeSpec.Builder asyncBuilder, MethodSpec finder) {
+        addMethod(helperBuilder, finder);
+        addMethod(asyncBuilder, finder.toBuilder()
+                .returns(ParameterizedTypeName.get(ClassName.get(ListenableFuture.class), finder.returnType.box()))
+                .build());
+    }
+
+    /**
+     * Adds (once) a static {@link IndexDefinition} for the given fields, with its view name
+     * and map version computed at compile time.
+     */
+    private FieldSpec buildIndexDefinition(TypeSpec.Builder helperBuilder, List<? extends Element> fields) {
+        String[] docFieldNames = new String[fields.size()];
+        String[] constantNames = new String[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            docFieldNames[i] = getDocFieldName(fields.get(i));
+            constantNames[i] = fields.get(i).getSimpleName().toString().toUpperCase();
+        }
+        IndexDefinition definition = IndexDefinition.of(docFieldNames);
+
+        CodeBlock.Builder fieldsCode = CodeBlock.builder();
+        String[] definitionFields = definition.getFields();
+        for (int i = 0; i < definitionFields.length; i++) {
+            fieldsCode.add(i == 0 ? "$S" : ", $S", definitionFields[i]);
+        }
+        FieldSpec indexField = FieldSpec.builder(IndexDefinition.class, "INDEX_" + Joiner.on('_').join(constantNames))
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T($S, new $T[]{$L}, $S)",
+                        IndexDefinition.class,
+                        definition.getName(),
+                        String.class,
+                        fieldsCode.build(),
+                        definition.getVersion())
                 .build();
-        addMethod(helperBuilder, findOneBy);
+        addField(helperBuilder, indexField);
+
+        return indexField;
+    }
+
+    private String getDocFieldName(Element el) {
+        Property property = el.getAnnotation(Property.class);
+        if (property != null && property.value().trim().length() > 0) {
+            return property.value();
+        }
+
+        return el.getSimpleName().toString();
     }
 
     private void writeClassToDisk(String packageName, TypeSpec proxy) throws IOException {
@@ -525,12 +1443,28 @@ public class DocumentProcessor extends AbstractProcessor {
 
     private TypeSpec.Builder getRepoBuilder(TypeElement typeElement) {
         return TypeSpec.classBuilder(typeElement.getSimpleName() + REPO_SUFFIX)
+                .addOriginatingElement(typeElement)
                 .addModifiers(Modifier.PUBLIC);
     }
 
+    private TypeSpec.Builder getAsyncRepoBuilder(TypeElement typeElement, ClassName repoClass, TypeVariableName typeVariable) {
+        MethodSpec constructor = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(repoClass, "repository")
+                .addParameter(Executor.class, "executor")
+                .addStatement("super(repository, executor)")
+                .build();
+
+        return TypeSpec.classBuilder(typeElement.getSimpleName() + ASYNC_REPO_SUFFIX)
+                .addModifiers(Modifier.PUBLIC)
+                .superclass(ParameterizedTypeName.get(ClassName.get(AsyncRepository.class), typeVariable))
+                .addMethod(constructor);
+    }
+
     private TypeSpec.Builder getProxyBuilder(TypeElement typeElement) {
         return TypeSpec.
                 classBuilder(typeElement.getSimpleName().toString())
+                .addOriginatingElement(typeElement)
                 .superclass(TypeName.get(typeElement.asType()))
                 .addSuperinterface(CouchDocument.class)
                 .addModifiers(Modifier.PUBLIC);
@@ -551,7 +1485,7 @@ public class DocumentProcessor extends AbstractProcessor {
         return MethodSpec.methodBuilder("unserialize")
                 .addModifiers(Modifier.PROTECTED)
                 .addAnnotation(Override.class)
-                .addParameter(com.couchbase.lite.Document.class, "document")
+                .addParameter(ParameterizedTypeName.get(Map.class, String.class, Object.class), "properties")
                 .returns(ClassName.get(
                         packageName + PACKAGE_SUFFIX,
                         typeElement.getSimpleName().toString()))
@@ -567,11 +1501,36 @@ public class DocumentProcessor extends AbstractProcessor {
                         packageName + PACKAGE_SUFFIX,
                         typeElement.getSimpleName().toString()),
                         typeElement.getSimpleName().toString().toLowerCase())
-                .returns(com.couchbase.lite.Document.class)
+                .returns(SavedRevision.class)
+                .addException(CouchbaseLiteException.class)
                 .addCode(code)
                 .build();
     }
 
+    private MethodSpec generateRepoSerializeProperties(TypeElement typeElement, String packageName, CodeBlock code) {
+        return MethodSpec.methodBuilder("serializeProperties")
+                .addModifiers(Modifier.PROTECTED)
+                .addAnnotation(Override.class)
+                .addParameter(ClassName.get(
+                        packageName + PACKAGE_SUFFIX,
+                        typeElement.getSimpleName().toString()),
+                        typeElement.getSimpleName().toString().toLowerCase())
+                .returns(ParameterizedTypeName.get(Map.class, String.class, Object.class))
+                .addCode(code)
+                .build();
+    }
+
+    /**
+     * Holds the revision the proxy was loaded or saved with, it is not stored as a property.
+     */
+    private void addRevisionAccessors(TypeSpec.Builder proxyBuilder) {
+        String fieldname = "revisionId";
+        TypeName fieldType = TypeName.get(String.class);
+        addField(proxyBuilder, FieldSpec.builder(fieldType, fieldname, Modifier.PRIVATE).build());
+        addMethod(proxyBuilder, generateProxyGetter(fieldname, fieldType));
+        addMethod(proxyBuilder, generateProxySetter(fieldname, fieldType));
+    }
+
     private MethodSpec generateProxySetter(String fieldname, TypeName fieldType) {
         String setterName = "set" + fieldname.substring(0, 1).toUpperCase() + fieldname.substring(1);
         return MethodSpec.methodBuilder(setterName)
@@ -600,6 +1559,15 @@ public class DocumentProcessor extends AbstractProcessor {
                 .build();
     }
 
+    private MethodSpec generateHelperRegistryConstructor() {
+        return MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(Database.class, "database")
+                .addParameter(ViewRegistry.class, "viewRegistry")
+                .addStatement("super(database, viewRegistry)")
+                .build();
+    }
+
     private MethodSpec generateHelperGetTypeMethod(Document annotation) {
         return MethodSpec.methodBuilder("getType")
                 .addModifiers(Modifier.PROTECTED)
@@ -615,6 +1583,11 @@ public class DocumentProcessor extends AbstractProcessor {
 
         strings.add(Document.class.getCanonicalName());
         strings.add(Property.class.getCanonicalName());
+        strings.add(Projection.class.getCanonicalName());
+        strings.add(ManyToOne.class.getCanonicalName());
+        strings.add(OneToMany.class.getCanonicalName());
+        strings.add(Embedded.class.getCanonicalName());
+        strings.add(Aggregate.class.getCanonicalName());
 
         return strings;
     }
@@ -0,0 +1,266 @@
+package gq.ledo.android.processor;
+
+import com.couchbase.lite.Database;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import gq.ledo.couchbaseorm.BaseRepository;
+import gq.ledo.couchbaseorm.CouchDocument;
+import gq.ledo.couchbaseorm.IndexDefinition;
+import gq.ledo.couchbaseorm.annotations.Document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the processor on small model classes and checks the generated code, which is compiled
+ * along with them against the library.
+ */
+public class DocumentProcessorTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String BOOK = "package test.model;\n"
+            + "import gq.ledo.couchbaseorm.annotations.Document;\n"
+            + "import gq.ledo.couchbaseorm.annotations.Index;\n"
+            + "@Document(type = \"Test.Book\", idFrom = {\"title\", \"published\"})\n"
+            + "public class Book {\n"
+            + "    private String id;\n"
+            + "    @Index\n"
+            + "    private String title;\n"
+            + "    @Index(unique = true)\n"
+            + "    private String isbn;\n"
+            + "    private boolean published;\n"
+            + "    private int pages;\n"
+            + "    private Long sold;\n"
+            + "    private char grade;\n"
+            + "}\n";
+
+    private File directory;
+    private File sources;
+    private File generated;
+    private File classes;
+    private List<Diagnostic<? extends JavaFileObject>> errors;
+
+    @Before
+    public void createDirectories() {
+        directory = Files.createTempDir();
+        sources = new File(directory, "src");
+        generated = new File(directory, "generated");
+        classes = new File(directory, "classes");
+        generated.mkdirs();
+        classes.mkdirs();
+    }
+
+    @After
+    public void deleteDirectories() {
+        delete(directory);
+    }
+
+    @Test
+    public void generatesProxyRepositoriesAndHelpers() throws Exception {
+        assertTrue(compile("test.model.Book", BOOK));
+
+        assertTrue(generated("test/model/proxy/Book.java").exists());
+        assertTrue(generated("test/model/proxy/BookRepository.java").exists());
+        assertTrue(generated("test/model/proxy/BookAsyncRepository.java").exists());
+        assertTrue(generated("gq/ledo/couchbaseorm/DBHelper.java").exists());
+        assertTrue(generated("gq/ledo/couchbaseorm/IndexRegistry.java").exists());
+
+        ClassLoader loader = classLoader();
+        Class<?> proxy = loader.loadClass("test.model.proxy.Book");
+        assertEquals(loader.loadClass("test.model.Book"), proxy.getSuperclass());
+        assertTrue(CouchDocument.class.isAssignableFrom(proxy));
+        assertTrue(BaseRepository.class.isAssignableFrom(loader.loadClass("test.model.proxy.BookRepository")));
+    }
+
+    @Test
+    public void generatesIndexFinders() throws Exception {
+        assertTrue(compile("test.model.Book", BOOK));
+        Class<?> repository = classLoader().loadClass("test.model.proxy.BookRepository");
+
+        IndexDefinition index = (IndexDefinition) repository.getField("INDEX_TITLE").get(null);
+        assertEquals("index.title", index.getName());
+        assertEquals(Arrays.asList("title"), Arrays.asList(index.getFields()));
+        repository.getMethod("findByTitle", String.class);
+        repository.getMethod("countByTitle", String.class);
+        repository.getMethod("findByTitleStartsWith", String.class);
+        // Unique indexes only have a single result finder
+        repository.getMethod("findOneByIsbn", String.class);
+        assertFalse(hasMethod(repository, "findByIsbn"));
+    }
+
+    @Test
+    public void readsPropertiesThroughThePropertyConverter() throws Exception {
+        assertTrue(compile("test.model.Book", BOOK));
+        String repository = read(generated("test/model/proxy/BookRepository.java"));
+
+        assertTrue(repository.contains("protected Book unserialize(Map<String, Object> properties)"));
+        assertTrue(repository.contains("PropertyConverter.toInt(properties.get(Book.PAGES))"));
+        assertTrue(repository.contains("PropertyConverter.toLongOrNull(properties.get(Book.SOLD))"));
+        assertTrue(repository.contains("PropertyConverter.toChar(properties.get(Book.GRADE))"));
+        assertFalse(repository.contains("getProperty("));
+    }
+
+    @Test
+    public void derivesIdsFromTheNaturalKey() throws Exception {
+        assertTrue(compile("test.model.Book", BOOK));
+        Class<?> repository = classLoader().loadClass("test.model.proxy.BookRepository");
+
+        Method idFor = repository.getMethod("idFor", String.class, boolean.class);
+        assertEquals("Test.Book:a\\:b:true", idFor.invoke(null, "a:b", true));
+        assertNull(idFor.invoke(null, null, false));
+        repository.getMethod("findOneByKey", String.class, boolean.class);
+    }
+
+    @Test
+    public void helperCreatesRepositoriesAndWarmsUp() throws Exception {
+        assertTrue(compile("test.model.Book", BOOK));
+        Class<?> helper = classLoader().loadClass("gq.ledo.couchbaseorm.DBHelper");
+
+        assertEquals("test.model.proxy.BookRepository", helper.getMethod("getBookRepository").getReturnType().getName());
+        helper.getMethod("create", Database.class);
+        assertEquals(ListenableFuture.class, helper.getMethod("warmUp", java.util.concurrent.Executor.class).getReturnType());
+    }
+
+    @Test
+    public void rejectsTheReservedTypeProperty() throws Exception {
+        assertFalse(compile("test.model.Shelf", "package test.model;\n"
+                + "@gq.ledo.couchbaseorm.annotations.Document(type = \"Test.Shelf\")\n"
+                + "public class Shelf {\n"
+                + "    private String id;\n"
+                + "    private String type;\n"
+                + "}\n"));
+
+        assertError("The property name 'type' is reserved.");
+    }
+
+    @Test
+    public void rejectsAggregatesOfNonNumericProperties() throws Exception {
+        assertFalse(compile("test.model.Shelf", "package test.model;\n"
+                + "@gq.ledo.couchbaseorm.annotations.Document(type = \"Test.Shelf\")\n"
+                + "public class Shelf {\n"
+                + "    private String id;\n"
+                + "    @gq.ledo.couchbaseorm.annotations.Aggregate\n"
+                + "    private String name;\n"
+                + "}\n"));
+
+        assertError("Only numeric properties can be aggregated.");
+    }
+
+    @Test
+    public void rejectsIdsDerivedFromUnknownFields() throws Exception {
+        assertFalse(compile("test.model.Shelf", "package test.model;\n"
+                + "@gq.ledo.couchbaseorm.annotations.Document(type = \"Test.Shelf\", idFrom = {\"code\"})\n"
+                + "public class Shelf {\n"
+                + "    private String id;\n"
+                + "    private String name;\n"
+                + "}\n"));
+
+        assertError("idFrom must name primitive or String fields: code");
+    }
+
+    private boolean compile(String className, String source) throws IOException {
+        File file = new File(sources, className.replace('.', '/') + ".java");
+        file.getParentFile().mkdirs();
+        Files.asCharSink(file, UTF_8).write(source);
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, Locale.ROOT, UTF_8);
+        try {
+            List<String> options = Arrays.asList(
+                    "-classpath", classPath(Document.class, BaseRepository.class, Database.class, ListenableFuture.class),
+                    "-s", generated.getPath(),
+                    "-d", classes.getPath());
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null,
+                    fileManager.getJavaFileObjects(file));
+            task.setProcessors(Arrays.asList(new DocumentProcessor()));
+            boolean success = task.call();
+            errors = new ArrayList<>();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                    errors.add(diagnostic);
+                }
+            }
+            return success;
+        } finally {
+            fileManager.close();
+        }
+    }
+
+    private void assertError(String message) {
+        for (Diagnostic<? extends JavaFileObject> error : errors) {
+            if (message.equals(error.getMessage(Locale.ROOT))) {
+                return;
+            }
+        }
+        throw new AssertionError("Missing error '" + message + "' in " + errors);
+    }
+
+    private File generated(String path) {
+        return new File(generated, path);
+    }
+
+    private ClassLoader classLoader() throws IOException {
+        return new URLClassLoader(new URL[]{classes.toURI().toURL()}, getClass().getClassLoader());
+    }
+
+    private static String read(File file) throws IOException {
+        return Files.asCharSource(file, UTF_8).read();
+    }
+
+    private static boolean hasMethod(Class<?> type, String name) {
+        for (Method method : type.getMethods()) {
+            if (method.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String classPath(Class<?>... types) {
+        StringBuilder classPath = new StringBuilder();
+        for (Class<?> type : types) {
+            if (classPath.length() > 0) {
+                classPath.append(File.pathSeparatorChar);
+            }
+            classPath.append(type.getProtectionDomain().getCodeSource().getLocation().getPath());
+        }
+        return classPath.toString();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}